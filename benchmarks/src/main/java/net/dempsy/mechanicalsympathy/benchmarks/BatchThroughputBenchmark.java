@@ -0,0 +1,203 @@
+package net.dempsy.mechanicalsympathy.benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.infra.Control;
+
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.OneToOneLongQueue2Padded;
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.OneToOneQueue2Padded;
+
+/**
+ * Sweeps the batch size of the batch offer/drain and fill/drain operations on the padded
+ * one-to-one queues. A batch size of 1 is equivalent to the single element offer/poll. The
+ * invocation rate is batches per second so compare the {@code offered} and {@code polled}
+ * counters, which count messages.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+@State(Scope.Group)
+public class BatchThroughputBenchmark
+{
+   @Param({ "1", "2", "4", "8", "16", "32", "64", "128", "256" })
+   public int batchSize;
+
+   @Param({ "8192" })
+   public int capacity;
+
+   private OneToOneQueue2Padded<Long> q;
+   private OneToOneLongQueue2Padded lq;
+
+   @Setup(Level.Iteration)
+   public void createQueues()
+   {
+      q = new OneToOneQueue2Padded<Long>(capacity);
+      lq = new OneToOneLongQueue2Padded(capacity);
+   }
+
+   @AuxCounters(AuxCounters.Type.OPERATIONS)
+   @State(Scope.Thread)
+   public static class ProducerState
+   {
+      public long offered;
+
+      Long[] batch;
+      long[] longBatch;
+      Supplier<Long> supplier;
+      LongSupplier longSupplier;
+
+      @Setup
+      public void prepare(final BatchThroughputBenchmark benchmark)
+      {
+         batch = new Long[benchmark.batchSize];
+         Arrays.fill(batch, 777L);
+         longBatch = new long[benchmark.batchSize];
+         Arrays.fill(longBatch, 777L);
+         final Long value = 777L;
+         supplier = new Supplier<Long>()
+         {
+            @Override
+            public Long get() { return value; }
+         };
+         longSupplier = new LongSupplier()
+         {
+            @Override
+            public long getAsLong() { return 777L; }
+         };
+      }
+   }
+
+   @AuxCounters(AuxCounters.Type.OPERATIONS)
+   @State(Scope.Thread)
+   public static class ConsumerState
+   {
+      public long polled;
+
+      Consumer<Long> sink;
+      LongConsumer longSink;
+
+      @Setup
+      public void prepare(final Blackhole bh)
+      {
+         sink = new Consumer<Long>()
+         {
+            @Override
+            public void accept(Long value) { bh.consume(value); }
+         };
+         longSink = new LongConsumer()
+         {
+            @Override
+            public void accept(long value) { bh.consume(value); }
+         };
+      }
+   }
+
+   @Benchmark
+   @Group("batch")
+   @GroupThreads(1)
+   public void offer(final Control control, final ProducerState producer)
+   {
+      final int len = producer.batch.length;
+      int off = 0;
+      while (off < len && !control.stopMeasurement)
+         off += q.offer(producer.batch, off, len - off);
+      producer.offered += off;
+   }
+
+   @Benchmark
+   @Group("batch")
+   @GroupThreads(1)
+   public void drain(final Control control, final ConsumerState consumer)
+   {
+      int count;
+      while ((count = q.drain(consumer.sink, batchSize)) == 0 && !control.stopMeasurement);
+      consumer.polled += count;
+   }
+
+   @Benchmark
+   @Group("batchLong")
+   @GroupThreads(1)
+   public void offerLong(final Control control, final ProducerState producer)
+   {
+      final int len = producer.longBatch.length;
+      int off = 0;
+      while (off < len && !control.stopMeasurement)
+         off += lq.offer(producer.longBatch, off, len - off);
+      producer.offered += off;
+   }
+
+   @Benchmark
+   @Group("batchLong")
+   @GroupThreads(1)
+   public void drainLong(final Control control, final ConsumerState consumer)
+   {
+      int count;
+      while ((count = lq.drain(consumer.longSink, batchSize)) == 0 && !control.stopMeasurement);
+      consumer.polled += count;
+   }
+
+   @Benchmark
+   @Group("fill")
+   @GroupThreads(1)
+   public void fill(final Control control, final ProducerState producer)
+   {
+      int filled = 0;
+      while (filled < batchSize && !control.stopMeasurement)
+         filled += q.fill(producer.supplier, batchSize - filled);
+      producer.offered += filled;
+   }
+
+   @Benchmark
+   @Group("fill")
+   @GroupThreads(1)
+   public void drainFilled(final Control control, final ConsumerState consumer)
+   {
+      int count;
+      while ((count = q.drain(consumer.sink, batchSize)) == 0 && !control.stopMeasurement);
+      consumer.polled += count;
+   }
+
+   @Benchmark
+   @Group("fillLong")
+   @GroupThreads(1)
+   public void fillLong(final Control control, final ProducerState producer)
+   {
+      int filled = 0;
+      while (filled < batchSize && !control.stopMeasurement)
+         filled += lq.fill(producer.longSupplier, batchSize - filled);
+      producer.offered += filled;
+   }
+
+   @Benchmark
+   @Group("fillLong")
+   @GroupThreads(1)
+   public void drainFilledLong(final Control control, final ConsumerState consumer)
+   {
+      int count;
+      while ((count = lq.drain(consumer.longSink, batchSize)) == 0 && !control.stopMeasurement);
+      consumer.polled += count;
+   }
+}
@@ -0,0 +1,111 @@
+package net.dempsy.mechanicalsympathy.benchmarks;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.dempsy.mechanicalsympathy.BlockingQueueAdapter;
+import net.dempsy.mechanicalsympathy.QueueType;
+
+/**
+ * Task submission rate into a single worker {@link ThreadPoolExecutor} from a single thread,
+ * with the executor's work queue being a plain {@link ArrayBlockingQueue} or one of the rings
+ * behind a {@link BlockingQueueAdapter}. When the queue is full the rejection handler puts the
+ * task, so the submitter blocks rather than the task being dropped and the rate is what the
+ * worker and the queue between them can sustain.
+ *
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar ExecutorQueueBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+@Threads(1)
+@State(Scope.Benchmark)
+public class ExecutorQueueBenchmark
+{
+   // ArrayBlockingQueue is the JDK queue itself, the others are adapted rings
+   @Param({ "ArrayBlockingQueue", "OneToOneQueue2Padded", "ManyToOneQueuePadded" })
+   public QueueType type;
+
+   @Param({ "1024" })
+   public int capacity;
+
+   private ThreadPoolExecutor executor;
+
+   private static final class Task implements Runnable
+   {
+      long runs = 0; // only touched by the worker
+
+      @Override
+      public void run()
+      {
+         runs++;
+      }
+   }
+
+   private final Task task = new Task();
+
+   private static final RejectedExecutionHandler putOnReject = new RejectedExecutionHandler()
+   {
+      @Override
+      public void rejectedExecution(Runnable r, ThreadPoolExecutor executor)
+      {
+         if (executor.isShutdown())
+            throw new RejectedExecutionException("executor is shut down");
+         try
+         {
+            executor.getQueue().put(r);
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException(e);
+         }
+      }
+   };
+
+   @Setup(Level.Trial)
+   public void createExecutor()
+   {
+      final BlockingQueue<Runnable> queue = type == QueueType.ArrayBlockingQueue ? new ArrayBlockingQueue<Runnable>(capacity)
+            : new BlockingQueueAdapter<Runnable>(type, capacity);
+      executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, queue, putOnReject);
+      executor.prestartAllCoreThreads();
+   }
+
+   @TearDown(Level.Trial)
+   public void shutdown() throws InterruptedException
+   {
+      executor.shutdown();
+      if (!executor.awaitTermination(10, TimeUnit.SECONDS))
+         throw new IllegalStateException("executor didn't terminate with " + executor.getQueue().size() + " tasks queued");
+   }
+
+   @Benchmark
+   public void submit()
+   {
+      executor.execute(task);
+   }
+}
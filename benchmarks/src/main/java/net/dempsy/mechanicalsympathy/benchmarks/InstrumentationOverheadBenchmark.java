@@ -0,0 +1,97 @@
+package net.dempsy.mechanicalsympathy.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Control;
+
+import net.dempsy.mechanicalsympathy.InstrumentedOneToOneQueue;
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.OneToOneQueue2Padded;
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.SimpleQueue;
+
+/**
+ * Cost of the counters in {@link InstrumentedOneToOneQueue} against the plain
+ * {@link OneToOneQueue2Padded} it's copied from. Each iteration gets a new queue, and the
+ * instrumented one is registered as an MBean for the whole iteration like it would be in
+ * production. The offer and poll rows for the two values of {@code instrumented} should be
+ * within a few percent of each other.
+ *
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar InstrumentationOverheadBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+@State(Scope.Group)
+public class InstrumentationOverheadBenchmark
+{
+   private static final Long VALUE = 777L;
+
+   @Param({ "false", "true" })
+   public boolean instrumented;
+
+   @Param({ "8192" })
+   public int capacity;
+
+   private SimpleQueue<Long> q;
+   private ObjectName name;
+
+   @Setup(Level.Iteration)
+   public void createQueue() throws JMException
+   {
+      if (instrumented)
+      {
+         final InstrumentedOneToOneQueue<Long> iq = new InstrumentedOneToOneQueue<Long>(capacity);
+         name = iq.register(InstrumentationOverheadBenchmark.class.getSimpleName());
+         q = iq;
+      }
+      else
+         q = new OneToOneQueue2Padded<Long>(capacity);
+   }
+
+   @TearDown(Level.Iteration)
+   public void unregister() throws JMException
+   {
+      if (name != null)
+         InstrumentedOneToOneQueue.unregister(name);
+      name = null;
+   }
+
+   @Benchmark
+   @Group("spsc")
+   @GroupThreads(1)
+   public void offer(final Control control)
+   {
+      while (!q.offer(VALUE) && !control.stopMeasurement);
+   }
+
+   @Benchmark
+   @Group("spsc")
+   @GroupThreads(1)
+   public Long poll(final Control control)
+   {
+      Long cur;
+      while ((cur = q.poll()) == null && !control.stopMeasurement);
+      return cur;
+   }
+}
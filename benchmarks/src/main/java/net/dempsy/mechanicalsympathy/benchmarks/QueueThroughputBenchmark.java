@@ -0,0 +1,93 @@
+package net.dempsy.mechanicalsympathy.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Control;
+
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.SimpleQueue;
+import net.dempsy.mechanicalsympathy.QueueType;
+
+/**
+ * JMH replacement for {@code MechanicalSympathy.runTests}. One producer and one consumer
+ * thread share a queue in an asymmetric group. JMH reports the group score as the sum of
+ * both sides so the per-method offer and poll rows are the ones to compare. Failed offers
+ * and polls are counted so a queue that spends its time full or empty shows up in the results.
+ *
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar QueueThroughputBenchmark -p type=OneToOneQueue2Padded
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+@State(Scope.Group)
+public class QueueThroughputBenchmark
+{
+   private static final Long VALUE = 777L;
+
+   @Param
+   public QueueType type;
+
+   @Param({ "1024", "8192", "65536" })
+   public int capacity;
+
+   private SimpleQueue<Long> q;
+
+   @Setup(Level.Iteration)
+   public void createQueue()
+   {
+      // a fresh queue every iteration so leftovers from the previous one aren't counted
+      q = type.create(capacity);
+   }
+
+   @AuxCounters(AuxCounters.Type.OPERATIONS)
+   @State(Scope.Thread)
+   public static class OfferCounters
+   {
+      public long offersFailed;
+   }
+
+   @AuxCounters(AuxCounters.Type.OPERATIONS)
+   @State(Scope.Thread)
+   public static class PollCounters
+   {
+      public long pollsFailed;
+   }
+
+   @Benchmark
+   @Group("spsc")
+   @GroupThreads(1)
+   public void offer(final Control control, final OfferCounters counters)
+   {
+      while (!q.offer(VALUE) && !control.stopMeasurement)
+         counters.offersFailed++;
+   }
+
+   @Benchmark
+   @Group("spsc")
+   @GroupThreads(1)
+   public Long poll(final Control control, final PollCounters counters)
+   {
+      Long cur;
+      while ((cur = q.poll()) == null && !control.stopMeasurement)
+         counters.pollsFailed++;
+      return cur;
+   }
+}
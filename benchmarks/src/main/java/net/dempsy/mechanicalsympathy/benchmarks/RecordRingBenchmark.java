@@ -0,0 +1,112 @@
+package net.dempsy.mechanicalsympathy.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.infra.Control;
+
+import net.dempsy.mechanicalsympathy.RecordRingBuffer;
+import net.dempsy.mechanicalsympathy.RecordRingBuffer.Record;
+import net.dempsy.mechanicalsympathy.RecordRingBuffer.RecordHandler;
+
+/**
+ * Record throughput of the {@link RecordRingBuffer} across body sizes. The producer encodes
+ * the body a long at a time in place and the consumer reads every long back through the
+ * flyweight. The {@code records} and {@code bytes} counters are per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+@State(Scope.Group)
+public class RecordRingBenchmark
+{
+   private static final int TYPE_ID = 7;
+
+   @Param({ "32", "64", "128", "256", "512" })
+   public int recordSize;
+
+   @Param({ "1048576" })
+   public int capacity;
+
+   @Param({ "64" })
+   public int readLimit;
+
+   private RecordRingBuffer ring;
+
+   @Setup(Level.Iteration)
+   public void createRing()
+   {
+      ring = new RecordRingBuffer(capacity);
+   }
+
+   @AuxCounters(AuxCounters.Type.OPERATIONS)
+   @State(Scope.Thread)
+   public static class ConsumerState
+   {
+      public long records;
+      public long bytes;
+
+      RecordHandler handler;
+
+      @Setup
+      public void prepare(final Blackhole bh)
+      {
+         handler = new RecordHandler()
+         {
+            @Override
+            public void onRecord(Record record)
+            {
+               long sum = 0;
+               for (int i = 0; i < record.length(); i += 8)
+                  sum += record.getLong(i);
+               bh.consume(sum);
+               bytes += record.length();
+            }
+         };
+      }
+   }
+
+   @Benchmark
+   @Group("records")
+   @GroupThreads(1)
+   public void write(final Control control)
+   {
+      int offset;
+      while ((offset = ring.claim(TYPE_ID, recordSize)) < 0 && !control.stopMeasurement);
+      if (offset < 0)
+         return;
+
+      final ByteBuffer buffer = ring.buffer();
+      for (int i = 0; i < recordSize; i += 8)
+         buffer.putLong(offset + i, i);
+      ring.commit();
+   }
+
+   @Benchmark
+   @Group("records")
+   @GroupThreads(1)
+   public void read(final Control control, final ConsumerState consumer)
+   {
+      int count;
+      while ((count = ring.read(consumer.handler, readLimit)) == 0 && !control.stopMeasurement);
+      consumer.records += count;
+   }
+}
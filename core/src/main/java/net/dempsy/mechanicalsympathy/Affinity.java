@@ -0,0 +1,110 @@
+package net.dempsy.mechanicalsympathy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Pins the calling thread to one cpu on Linux without any native code. The thread finds its own
+ * kernel thread id through /proc/thread-self and runs {@code taskset -p -c} on it. Threads it
+ * starts afterwards inherit the pinning until they pin themselves somewhere else.
+ *
+ * Anywhere else, or without taskset on the path, {@link #pin(int)} does nothing and returns
+ * false, so a benchmark can say it ran unpinned rather than failing.
+ */
+public final class Affinity
+{
+   private final static Path threadSelf = Paths.get("/proc/thread-self");
+   private final static String allowedListKey = "Cpus_allowed_list:";
+
+   private Affinity()
+   {}
+
+   public static boolean isSupported()
+   {
+      if (!Files.exists(threadSelf))
+         return false;
+      for (String dir : System.getenv().getOrDefault("PATH", "").split(File.pathSeparator))
+         if (Files.isExecutable(Paths.get(dir, "taskset")))
+            return true;
+      return false;
+   }
+
+   /**
+    * @return the kernel id of the calling thread, or -1 if there's no /proc/thread-self.
+    */
+   public static long threadId()
+   {
+      try
+      {
+         // the link reads "pid/task/tid"
+         return Long.parseLong(Files.readSymbolicLink(threadSelf).getFileName().toString());
+      }
+      catch (IOException | RuntimeException e)
+      {
+         return -1;
+      }
+   }
+
+   /**
+    * @return true if the calling thread is now only allowed to run on the given cpu.
+    */
+   public static boolean pin(int cpu)
+   {
+      final long tid = threadId();
+      if (tid < 0)
+         return false;
+
+      try
+      {
+         final Process taskset = new ProcessBuilder("taskset", "-p", "-c", Integer.toString(cpu), Long.toString(tid))
+               .redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+         if (taskset.waitFor() != 0)
+            return false;
+      }
+      catch (IOException e)
+      {
+         return false;
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         return false;
+      }
+      return Integer.toString(cpu).equals(allowed(threadSelf));
+   }
+
+   /**
+    * @return the cpus the calling thread may run on as a list like 0-3,8, or null if that can't be
+    * read.
+    */
+   public static String allowed()
+   {
+      return allowed(threadSelf);
+   }
+
+   /**
+    * @return the cpus the process was started with as a list like 0-3,8, or null if that can't be
+    * read.
+    */
+   public static String processAllowed()
+   {
+      return allowed(Paths.get("/proc/self"));
+   }
+
+   private static String allowed(Path proc)
+   {
+      try
+      {
+         for (String line : Files.readAllLines(proc.resolve("status"), StandardCharsets.US_ASCII))
+            if (line.startsWith(allowedListKey))
+               return line.substring(allowedListKey.length()).trim();
+      }
+      catch (IOException e)
+      {}
+      return null;
+   }
+}
@@ -0,0 +1,128 @@
+package net.dempsy.mechanicalsympathy;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Allocation and garbage collection over one benchmark run, so GC jitter can be put down to
+ * the queue that caused it. An array queue of preallocated values allocates nothing per
+ * message while {@link java.util.concurrent.ConcurrentLinkedQueue} allocates a node for every
+ * offer, and that shows up here as bytes per operation on the producer side.
+ *
+ * Each producer and consumer thread reads its own allocation counter before and after its
+ * loop with {@link #threadAllocatedBytes()} and adds the difference. A thread has to do this
+ * itself because the counter of a thread that's already finished can't be read. The
+ * collections, collection time and heap in use come from the platform MXBeans between
+ * {@link #begin()} and {@link #end()}.
+ *
+ * <pre>
+ * final long allocated = AllocationProbe.threadAllocatedBytes();
+ * ... the thread's share of the run ...
+ * probe.addConsumerBytes(AllocationProbe.threadAllocatedBytes() - allocated);
+ * </pre>
+ */
+public final class AllocationProbe
+{
+   private final static com.sun.management.ThreadMXBean threads;
+   static
+   {
+      final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+      if (bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean)bean).isThreadAllocatedMemorySupported())
+      {
+         threads = (com.sun.management.ThreadMXBean)bean;
+         threads.setThreadAllocatedMemoryEnabled(true);
+      }
+      else
+         threads = null;
+   }
+
+   private final AtomicLong producerBytes = new AtomicLong();
+   private final AtomicLong consumerBytes = new AtomicLong();
+
+   private long gcCountStart;
+   private long gcTimeStart;
+
+   public long gcCount;
+   public long gcTimeMillis;
+   public long heapUsedBytes;
+
+   /**
+    * @return the bytes allocated so far by the calling thread, or 0 if the JVM can't tell.
+    */
+   public static long threadAllocatedBytes()
+   {
+      return threads == null ? 0 : threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+   }
+
+   public static boolean isSupported()
+   {
+      return threads != null;
+   }
+
+   private static long[] collections()
+   {
+      long count = 0;
+      long time = 0;
+      for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+      {
+         count += Math.max(gc.getCollectionCount(), 0);
+         time += Math.max(gc.getCollectionTime(), 0);
+      }
+      return new long[] { count, time };
+   }
+
+   public void begin()
+   {
+      final long[] collections = collections();
+      gcCountStart = collections[0];
+      gcTimeStart = collections[1];
+   }
+
+   public void end()
+   {
+      final long[] collections = collections();
+      gcCount = collections[0] - gcCountStart;
+      gcTimeMillis = collections[1] - gcTimeStart;
+      final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+      heapUsedBytes = memory.getHeapMemoryUsage().getUsed();
+   }
+
+   public void addProducerBytes(long bytes)
+   {
+      producerBytes.addAndGet(bytes);
+   }
+
+   public void addConsumerBytes(long bytes)
+   {
+      consumerBytes.addAndGet(bytes);
+   }
+
+   public long producerBytes()
+   {
+      return producerBytes.get();
+   }
+
+   public long consumerBytes()
+   {
+      return consumerBytes.get();
+   }
+
+   public double producerBytesPerOp(long operations)
+   {
+      return (double)producerBytes.get() / operations;
+   }
+
+   public double consumerBytesPerOp(long operations)
+   {
+      return (double)consumerBytes.get() / operations;
+   }
+
+   public String format(long operations)
+   {
+      return String.format("alloc producer %.2f B/op consumer %.2f B/op gc %d in %,d ms heap %,d KB%s",
+            producerBytesPerOp(operations), consumerBytesPerOp(operations), gcCount, gcTimeMillis, heapUsedBytes / 1024,
+            isSupported() ? "" : " (thread allocation not supported)");
+   }
+}
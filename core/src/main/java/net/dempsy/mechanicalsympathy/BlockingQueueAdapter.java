@@ -0,0 +1,369 @@
+package net.dempsy.mechanicalsympathy;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.BatchQueue;
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.PaddedAtomicLong;
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.SimpleQueue;
+
+/**
+ * A {@link BlockingQueue} over any of the {@link SimpleQueue}s so they can be handed to
+ * something like a {@link java.util.concurrent.ThreadPoolExecutor}. It's only as concurrent as
+ * the queue underneath it: over a one to one queue there must be a single producer thread and a
+ * single consumer thread.
+ *
+ * The blocking operations spin on the queue for a while before parking. A side that makes
+ * progress only takes the lock to wake the other side when something is parked, so the lock
+ * stays off the path while neither side has to wait. A wakeup that lands between a parked
+ * side's last try and its wait is missed, so waits are timed to bound what that costs, the
+ * same as {@link WaitStrategy.Blocking}.
+ *
+ * {@link #size()} comes from counts of what went in and came out. Those are single writer
+ * counters published with lazySet unless the queue takes more than one producer or consumer.
+ * An element is counted as added before it's offered and as removed after it's polled, so the
+ * size can briefly include an element that's still being offered but never misses one that's
+ * in the queue. {@link #isEmpty()} is only true when the queue really is empty.
+ * {@link #drainTo(Collection, int)} is a batch drain when the queue is a {@link BatchQueue}.
+ *
+ * This is a FIFO and nothing else. The {@link SimpleQueue}s have no way to look at their head
+ * without taking it or to go through what they hold, so {@link #peek()} and {@link #iterator()}
+ * throw {@link UnsupportedOperationException}, and so does everything {@link AbstractQueue}
+ * builds on them: element, contains, toArray, removeAll and retainAll. Nothing can be taken out
+ * of the middle either, so {@link #remove(Object)} always returns false, as a queue that doesn't
+ * hold the element would.
+ *
+ * For a {@link java.util.concurrent.ThreadPoolExecutor} that means remove(task) and purge() leave
+ * tasks where they are. execute() only rejects a task whose submit races shutdown() if it can
+ * remove it, so here the task stays queued and a worker runs it. The exception is a submit that
+ * lands after the pool has already terminated: the executor can neither remove the task nor
+ * start a worker for it, so it's left in the queue without being rejected. Stop submitting
+ * before calling shutdown() if that matters. shutdownNow() drains with drainTo on the calling
+ * thread while a worker may still be polling, which is a second consumer, so it's only safe over
+ * a queue that takes more than one consumer, such as
+ * {@link MechanicalSympathy.ManyToManyQueuePadded}.
+ */
+public final class BlockingQueueAdapter<E> extends AbstractQueue<E> implements BlockingQueue<E>
+{
+   public final static int defaultSpins = 100;
+   public final static long defaultMaxWaitNanos = TimeUnit.MILLISECONDS.toNanos(1);
+
+   private final SimpleQueue<E> q;
+   private final int capacity;
+   private final boolean multiProducer;
+   private final boolean multiConsumer;
+   private final int spins;
+   private final long maxWaitNanos;
+
+   private final PaddedAtomicLong added = new PaddedAtomicLong(0);
+   private final PaddedAtomicLong removed = new PaddedAtomicLong(0);
+
+   private final Waiters notEmpty = new Waiters();
+   private final Waiters notFull = new Waiters();
+
+   /**
+    * @param capacity what the queue holds, for {@link #remainingCapacity()}. Use
+    * {@link Integer#MAX_VALUE} for an unbounded queue.
+    */
+   public BlockingQueueAdapter(SimpleQueue<E> q, int capacity, boolean multiProducer, boolean multiConsumer, int spins, long maxWaitNanos)
+   {
+      this.q = q;
+      this.capacity = capacity;
+      this.multiProducer = multiProducer;
+      this.multiConsumer = multiConsumer;
+      this.spins = spins;
+      this.maxWaitNanos = maxWaitNanos;
+   }
+
+   public BlockingQueueAdapter(QueueType type, int capacity)
+   {
+      this(type.<E>create(capacity), type == QueueType.ConcurrentLinkedQueue || type == QueueType.OneToOneLinkedArrayQueue ? Integer.MAX_VALUE : capacity,
+            type.multiProducer, type.multiConsumer, defaultSpins, defaultMaxWaitNanos);
+   }
+
+   private static final class Waiters
+   {
+      private final ReentrantLock lock = new ReentrantLock();
+      private final Condition condition = lock.newCondition();
+      private volatile int waiting = 0;
+
+      final void await(long nanos) throws InterruptedException
+      {
+         lock.lockInterruptibly();
+         try
+         {
+            waiting++;
+            condition.awaitNanos(nanos);
+         }
+         finally
+         {
+            waiting--;
+            lock.unlock();
+         }
+      }
+
+      final void signal()
+      {
+         if (waiting > 0)
+         {
+            lock.lock();
+            try
+            {
+               condition.signalAll();
+            }
+            finally
+            {
+               lock.unlock();
+            }
+         }
+      }
+   }
+
+   private static void add(final PaddedAtomicLong counter, final long count, final boolean shared)
+   {
+      if (shared)
+         counter.addAndGet(count);
+      else
+         counter.lazySet(counter.get() + count); // single writer so no CAS
+   }
+
+   // counted before the offer so an element in the queue is always in the size
+   private void adding()
+   {
+      add(added, 1, multiProducer);
+   }
+
+   private void notAdded()
+   {
+      add(added, -1, multiProducer);
+   }
+
+   private void removed(long count)
+   {
+      add(removed, count, multiConsumer);
+      notFull.signal();
+   }
+
+   //=====================================================================================
+
+   @Override
+   public boolean offer(E e)
+   {
+      if (e == null)
+         throw new NullPointerException();
+
+      adding();
+      if (!q.offer(e))
+      {
+         notAdded();
+         return false;
+      }
+      notEmpty.signal();
+      return true;
+   }
+
+   @Override
+   public E poll()
+   {
+      final E ret = q.poll();
+      if (ret != null)
+         removed(1);
+      return ret;
+   }
+
+   @Override
+   public void put(E e) throws InterruptedException
+   {
+      if (e == null)
+         throw new NullPointerException();
+
+      adding();
+      try
+      {
+         for (int attempt = 0; !q.offer(e); attempt++)
+         {
+            if (attempt < spins)
+               Thread.onSpinWait();
+            else
+            {
+               if (Thread.interrupted())
+                  throw new InterruptedException();
+               notFull.await(maxWaitNanos);
+            }
+         }
+      }
+      catch (InterruptedException ie)
+      {
+         notAdded();
+         throw ie;
+      }
+      notEmpty.signal();
+   }
+
+   @Override
+   public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException
+   {
+      if (e == null)
+         throw new NullPointerException();
+
+      final long deadline = System.nanoTime() + unit.toNanos(timeout);
+      adding();
+      try
+      {
+         for (int attempt = 0; !q.offer(e); attempt++)
+         {
+            if (attempt < spins)
+               Thread.onSpinWait();
+            else
+            {
+               if (Thread.interrupted())
+                  throw new InterruptedException();
+               final long remaining = deadline - System.nanoTime();
+               if (remaining <= 0)
+               {
+                  notAdded();
+                  return false;
+               }
+               notFull.await(Math.min(remaining, maxWaitNanos));
+            }
+         }
+      }
+      catch (InterruptedException ie)
+      {
+         notAdded();
+         throw ie;
+      }
+      notEmpty.signal();
+      return true;
+   }
+
+   @Override
+   public E take() throws InterruptedException
+   {
+      E ret;
+      for (int attempt = 0; (ret = q.poll()) == null; attempt++)
+      {
+         if (attempt < spins)
+            Thread.onSpinWait();
+         else
+         {
+            if (Thread.interrupted())
+               throw new InterruptedException();
+            notEmpty.await(maxWaitNanos);
+         }
+      }
+      removed(1);
+      return ret;
+   }
+
+   @Override
+   public E poll(long timeout, TimeUnit unit) throws InterruptedException
+   {
+      final long deadline = System.nanoTime() + unit.toNanos(timeout);
+      E ret;
+      for (int attempt = 0; (ret = q.poll()) == null; attempt++)
+      {
+         if (attempt < spins)
+            Thread.onSpinWait();
+         else
+         {
+            if (Thread.interrupted())
+               throw new InterruptedException();
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+               return null;
+            notEmpty.await(Math.min(remaining, maxWaitNanos));
+         }
+      }
+      removed(1);
+      return ret;
+   }
+
+   @Override
+   public int drainTo(Collection<? super E> c)
+   {
+      return drainTo(c, Integer.MAX_VALUE);
+   }
+
+   @Override
+   @SuppressWarnings("unchecked")
+   public int drainTo(final Collection<? super E> c, final int maxElements)
+   {
+      if (c == this)
+         throw new IllegalArgumentException();
+
+      int count = 0;
+      if (q instanceof BatchQueue)
+      {
+         final Consumer<E> adder = new Consumer<E>()
+         {
+            @Override
+            public void accept(E e) { c.add(e); }
+         };
+         for (int drained; count < maxElements && (drained = ((BatchQueue<E>)q).drain(adder, maxElements - count)) > 0;)
+            count += drained;
+      }
+      else
+      {
+         for (E e; count < maxElements && (e = q.poll()) != null; count++)
+            c.add(e);
+      }
+
+      if (count > 0)
+         removed(count);
+      return count;
+   }
+
+   @Override
+   public int size()
+   {
+      // removed first so a poll between the two reads can only make the size larger
+      final long out = removed.get();
+      return (int)Math.max(0, Math.min(Integer.MAX_VALUE, added.get() - out));
+   }
+
+   @Override
+   public boolean isEmpty()
+   {
+      return size() == 0;
+   }
+
+   @Override
+   public int remainingCapacity()
+   {
+      return capacity == Integer.MAX_VALUE ? Integer.MAX_VALUE : Math.max(0, capacity - size());
+   }
+
+   /**
+    * Nothing can be taken out of the middle of a ring, so this never removes anything.
+    */
+   @Override
+   public boolean remove(Object o)
+   {
+      return false;
+   }
+
+   @Override
+   public E peek()
+   {
+      throw new UnsupportedOperationException("peek isn't supported by " + q.getClass().getSimpleName());
+   }
+
+   @Override
+   public Iterator<E> iterator()
+   {
+      throw new UnsupportedOperationException("iteration isn't supported by " + q.getClass().getSimpleName());
+   }
+
+   @Override
+   public String toString()
+   {
+      return getClass().getSimpleName() + "(" + q.getClass().getSimpleName() + ", size " + size() + ")";
+   }
+}
@@ -0,0 +1,176 @@
+package net.dempsy.mechanicalsympathy;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Which cpus are hardware threads of the same core and which cores share a socket, read from
+ * /sys/devices/system/cpu on Linux. Only cpus that are online and that the process is allowed
+ * to run on are included, so a container limited to a few cpus sees just those.
+ *
+ * {@link #pair(Placement)} picks a producer and consumer cpu for each way two threads can sit
+ * relative to each other. Two threads on the same core share its L1 and L2, two cores in a
+ * socket share the last level cache and two sockets only share memory, so each step out costs
+ * more every time a line moves between them. A placement the machine can't provide, like
+ * {@link Placement#CrossSocket} on a single socket box, has no pair.
+ */
+public final class CpuTopology
+{
+   private final static Path sysCpu = Paths.get("/sys/devices/system/cpu");
+
+   public enum Placement
+   {
+      /**
+       * Neither thread is pinned and the scheduler puts them wherever it likes.
+       */
+      Unpinned,
+
+      /**
+       * Both threads pinned to one cpu, taking turns. The only pinned placement on a single
+       * cpu.
+       */
+      SameCpu,
+
+      /**
+       * Two hardware threads of the same core.
+       */
+      SmtSiblings,
+
+      /**
+       * Two different cores in the same socket.
+       */
+      SameSocket,
+
+      /**
+       * Cores in two different sockets.
+       */
+      CrossSocket
+   }
+
+   public static final class Cpu
+   {
+      public final int id;
+      public final int core;
+      public final int socket;
+
+      public Cpu(int id, int core, int socket)
+      {
+         this.id = id;
+         this.core = core;
+         this.socket = socket;
+      }
+
+      public boolean sameCore(Cpu other)
+      {
+         return core == other.core && socket == other.socket;
+      }
+   }
+
+   public final List<Cpu> cpus;
+
+   public CpuTopology(List<Cpu> cpus)
+   {
+      this.cpus = Collections.unmodifiableList(new ArrayList<Cpu>(cpus));
+   }
+
+   /**
+    * @return the topology of this machine. Empty if it can't be read, which leaves only
+    * {@link Placement#Unpinned}.
+    */
+   public static CpuTopology read()
+   {
+      final List<Cpu> cpus = new ArrayList<Cpu>();
+      try
+      {
+         final List<Integer> online = parseList(readLine(sysCpu.resolve("online")));
+         final String allowed = Affinity.processAllowed();
+         final Set<Integer> usable = new HashSet<Integer>(allowed == null ? online : parseList(allowed));
+         for (int id : online)
+         {
+            if (!usable.contains(id))
+               continue;
+            final Path topology = sysCpu.resolve("cpu" + id).resolve("topology");
+            cpus.add(new Cpu(id, Integer.parseInt(readLine(topology.resolve("core_id"))),
+                  Integer.parseInt(readLine(topology.resolve("physical_package_id")))));
+         }
+      }
+      catch (IOException | RuntimeException e)
+      {
+         cpus.clear();
+      }
+      return new CpuTopology(cpus);
+   }
+
+   private static String readLine(Path path) throws IOException
+   {
+      return new String(Files.readAllBytes(path), StandardCharsets.US_ASCII).trim();
+   }
+
+   /**
+    * Parses the kernel's cpu list format, like 0-3,8,10-11.
+    */
+   public static List<Integer> parseList(String list)
+   {
+      final List<Integer> ret = new ArrayList<Integer>();
+      for (String part : list.trim().split(","))
+      {
+         if (part.isEmpty())
+            continue;
+         final int dash = part.indexOf('-');
+         if (dash < 0)
+            ret.add(Integer.parseInt(part));
+         else
+            for (int i = Integer.parseInt(part.substring(0, dash)); i <= Integer.parseInt(part.substring(dash + 1)); i++)
+               ret.add(i);
+      }
+      return ret;
+   }
+
+   /**
+    * @return the producer and consumer cpu for the placement, null if this machine doesn't have
+    * one, or an empty array for {@link Placement#Unpinned}.
+    */
+   public int[] pair(Placement placement)
+   {
+      if (placement == Placement.Unpinned)
+         return new int[0];
+
+      for (Cpu a : cpus)
+      {
+         if (placement == Placement.SameCpu)
+            return new int[] { a.id, a.id };
+
+         for (Cpu b : cpus)
+         {
+            if (a == b)
+               continue;
+            if ((placement == Placement.SmtSiblings && a.sameCore(b))
+                  || (placement == Placement.SameSocket && a.socket == b.socket && !a.sameCore(b))
+                  || (placement == Placement.CrossSocket && a.socket != b.socket))
+               return new int[] { a.id, b.id };
+         }
+      }
+      return null;
+   }
+
+   @Override
+   public String toString()
+   {
+      final Set<String> cores = new HashSet<String>();
+      final Set<Integer> sockets = new HashSet<Integer>();
+      for (Cpu cpu : cpus)
+      {
+         cores.add(cpu.socket + ":" + cpu.core);
+         sockets.add(cpu.socket);
+      }
+      return String.format("%d cpus on %d cores in %d sockets", cpus.size(), cores.size(), sockets.size());
+   }
+}
@@ -0,0 +1,186 @@
+package net.dempsy.mechanicalsympathy;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Task hand-off through an {@link EventLoopGroup} against {@link Executors#newFixedThreadPool}
+ * with the same number of threads.
+ *
+ * In the hand-off test one thread submits every task and each task records how long it took
+ * from submission to starting to run, so the rate is how fast tasks can be passed to the
+ * workers and the percentiles are the hand-off latency. In the local test each worker runs a
+ * chain of tasks where every task submits the next from the worker itself. That goes through
+ * the loop's own deque in the event loop group and back through the shared queue in the pool.
+ *
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar net.dempsy.mechanicalsympathy.EventLoopBenchmark -threads 2 -idle Backoff
+ * </pre>
+ */
+public class EventLoopBenchmark
+{
+   private final int numTasks;
+
+   public EventLoopBenchmark(int numTasks)
+   {
+      this.numTasks = numTasks;
+   }
+
+   private static void await(final LongAdder completed, final long count)
+   {
+      while (completed.sum() < count)
+         Thread.yield();
+   }
+
+   /**
+    * @return tasks per second. The hand-off latencies are added to histogram.
+    */
+   public long handOff(final Executor executor, final Histogram histogram)
+   {
+      final Recorder recorder = new Recorder(LatencyBenchmark.highestTrackableLatency, 3);
+      final LongAdder completed = new LongAdder();
+
+      final long startTime = System.nanoTime();
+      for (int i = 0; i < numTasks; i++)
+      {
+         final long submitted = System.nanoTime();
+         executor.execute(new Runnable()
+         {
+            @Override
+            public void run()
+            {
+               recorder.recordValue(Math.min(System.nanoTime() - submitted, LatencyBenchmark.highestTrackableLatency));
+               completed.increment();
+            }
+         });
+      }
+      await(completed, numTasks);
+      final long endTime = System.nanoTime();
+
+      histogram.add(recorder.getIntervalHistogram());
+      return (long)((double)numTasks * TimeUnit.SECONDS.toNanos(1) / (endTime - startTime));
+   }
+
+   /**
+    * @return tasks per second across all of the chains
+    */
+   public long local(final Executor executor, final Executor[] workers)
+   {
+      final LongAdder completed = new LongAdder();
+      final int perChain = numTasks / workers.length;
+
+      final long startTime = System.nanoTime();
+      for (final Executor worker : workers)
+      {
+         worker.execute(new Runnable()
+         {
+            int remaining = perChain;
+
+            @Override
+            public void run()
+            {
+               completed.increment();
+               if (--remaining > 0)
+                  executor.execute(this);
+            }
+         });
+      }
+      await(completed, (long)perChain * workers.length);
+      final long endTime = System.nanoTime();
+
+      return (long)((double)perChain * workers.length * TimeUnit.SECONDS.toNanos(1) / (endTime - startTime));
+   }
+
+   public void runTests(final String prefix, final Executor executor, final Executor[] workers, final int runs)
+   {
+      final long[] handOffRates = new long[runs];
+      final long[] localRates = new long[runs];
+      final Histogram histogram = new Histogram(LatencyBenchmark.highestTrackableLatency, 3);
+      for (int run = 0; run < runs; run++)
+      {
+         final Histogram runHistogram = new Histogram(LatencyBenchmark.highestTrackableLatency, 3);
+         handOffRates[run] = handOff(executor, runHistogram);
+         System.out.println(LatencyBenchmark.format(String.format("%s hand-off %,d tasks/sec", prefix, handOffRates[run]), runHistogram));
+         if (run > 0) // leave the first run out of the latencies as warmup
+            histogram.add(runHistogram);
+
+         localRates[run] = local(executor, workers);
+         System.out.format("%s local %,d tasks/sec%n", prefix, localRates[run]);
+      }
+      System.out.format("%s hand-off %s%n", prefix, Statistics.of(handOffRates));
+      System.out.println(LatencyBenchmark.format(prefix + " hand-off latency after the first run", histogram));
+      System.out.format("%s local %s%n", prefix, Statistics.of(localRates));
+   }
+
+   public static void main(String[] args) throws Throwable
+   {
+      int threads = MechanicalSympathy.maxThreads();
+      int numTasks = 1024 * 1024;
+      int capacity = EventLoopGroup.defaultMailboxCapacity;
+      int batchSize = EventLoopGroup.defaultBatchSize;
+      WaitStrategyType idle = WaitStrategyType.Backoff;
+      int runs = MechanicalSympathy.numRuns;
+
+      for (int i = 0; i < args.length; i++)
+      {
+         final String arg = args[i];
+         if (i == args.length - 1)
+         {
+            usage();
+            return;
+         }
+         else if ("-threads".equals(arg))
+            threads = Integer.parseInt(args[++i]);
+         else if ("-tasks".equals(arg))
+            numTasks = Integer.parseInt(args[++i]);
+         else if ("-capacity".equals(arg))
+            capacity = Integer.parseInt(args[++i]);
+         else if ("-batch".equals(arg))
+            batchSize = Integer.parseInt(args[++i]);
+         else if ("-idle".equals(arg))
+            idle = WaitStrategyType.valueOf(args[++i]);
+         else if ("-runs".equals(arg))
+            runs = Integer.parseInt(args[++i]);
+         else
+         {
+            usage();
+            return;
+         }
+      }
+
+      EventLoopBenchmark o = new EventLoopBenchmark(numTasks);
+
+      final EventLoopGroup group = new EventLoopGroup(threads, capacity, batchSize, idle);
+      final Executor[] loops = new Executor[threads];
+      for (int i = 0; i < threads; i++)
+         loops[i] = group.loop(i);
+      o.runTests(String.format("EventLoopGroup %d threads %s", threads, idle), group, loops, runs);
+      group.shutdown();
+      group.awaitTermination(10, TimeUnit.SECONDS);
+
+      final ExecutorService pool = Executors.newFixedThreadPool(threads);
+      final Executor[] poolWorkers = new Executor[threads];
+      for (int i = 0; i < threads; i++)
+         poolWorkers[i] = pool;
+      o.runTests(String.format("FixedThreadPool %d threads", threads), pool, poolWorkers, runs);
+      pool.shutdown();
+      pool.awaitTermination(10, TimeUnit.SECONDS);
+   }
+
+   public static void usage()
+   {
+      System.out.println("usage: java " + EventLoopBenchmark.class.getName() + " [options]");
+      System.out.println("        -threads n        worker threads (default " + MechanicalSympathy.maxThreads() + ")");
+      System.out.println("        -tasks n          tasks per run (default " + (1024 * 1024) + ")");
+      System.out.println("        -capacity n       event loop mailbox capacity (default " + EventLoopGroup.defaultMailboxCapacity + ")");
+      System.out.println("        -batch n          tasks an event loop runs from each source per pass (default " + EventLoopGroup.defaultBatchSize + ")");
+      System.out.println("        -idle strategy    what an idle event loop does (default Backoff)");
+      System.out.println("        -runs n           runs of each executor (default " + MechanicalSympathy.numRuns + ")");
+   }
+}
@@ -0,0 +1,230 @@
+package net.dempsy.mechanicalsympathy;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.ManyToOneQueuePadded;
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.PaddedAtomicLong;
+
+/**
+ * A thread per core executor. Each {@link EventLoop} is one thread that owns a bounded
+ * {@link ManyToOneQueuePadded} mailbox and runs tasks to completion, never handing a task to
+ * another thread itself. Tasks submitted from another thread go through the mailbox. Tasks a
+ * loop submits to itself go on a plain {@link ArrayDeque} that only it touches.
+ *
+ * Each pass of the loop runs up to a batch of local tasks and then drains up to a batch from
+ * the mailbox, publishing the mailbox head once for the whole batch. When a pass finds nothing
+ * to do the loop idles with its {@link WaitStrategy}. Submitters that find a mailbox full
+ * yield until there's room.
+ *
+ * A submitter from another thread is counted while it's offering to a mailbox. A loop that's
+ * been shut down keeps draining until that count is zero and a pass finds nothing, so a task is
+ * either rejected or run, even when its submitter races the shutdown.
+ *
+ * Work that needs to stay on one thread (a handler's state, say) should always be submitted to
+ * the same loop with {@link #loop(int)}. {@link #execute(Runnable)} spreads tasks round robin
+ * unless it's called from one of the loops, in which case the task stays on that loop.
+ */
+public final class EventLoopGroup implements Executor
+{
+   public final static int defaultMailboxCapacity = 1024;
+   public final static int defaultBatchSize = 64;
+
+   private final EventLoop[] loops;
+   private final AtomicInteger next = new AtomicInteger();
+
+   public EventLoopGroup(int threads, int mailboxCapacity, int batchSize, WaitStrategyType idle)
+   {
+      if (threads < 1)
+         throw new IllegalArgumentException("threads must be at least 1");
+
+      loops = new EventLoop[threads];
+      for (int i = 0; i < threads; i++)
+         loops[i] = new EventLoop("event-loop-" + i, mailboxCapacity, batchSize, idle.create());
+      for (EventLoop loop : loops)
+         loop.thread.start();
+   }
+
+   public EventLoopGroup(int threads)
+   {
+      this(threads, defaultMailboxCapacity, defaultBatchSize, WaitStrategyType.Backoff);
+   }
+
+   public int size()
+   {
+      return loops.length;
+   }
+
+   public EventLoop loop(int key)
+   {
+      return loops[Math.floorMod(key, loops.length)];
+   }
+
+   @Override
+   public void execute(Runnable task)
+   {
+      for (EventLoop loop : loops)
+      {
+         if (loop.inLoop())
+         {
+            loop.execute(task);
+            return;
+         }
+      }
+      loops[Math.floorMod(next.getAndIncrement(), loops.length)].execute(task);
+   }
+
+   /**
+    * Stops accepting tasks. Each loop runs whatever's already queued and then exits.
+    */
+   public void shutdown()
+   {
+      for (EventLoop loop : loops)
+         loop.shutdown();
+   }
+
+   public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+   {
+      final long deadline = System.nanoTime() + unit.toNanos(timeout);
+      for (EventLoop loop : loops)
+      {
+         final long remaining = deadline - System.nanoTime();
+         if (remaining <= 0 || !loop.awaitTermination(remaining, TimeUnit.NANOSECONDS))
+            return false;
+      }
+      return true;
+   }
+
+   //=====================================================================================
+
+   public static final class EventLoop implements Executor, Runnable
+   {
+      private final ManyToOneQueuePadded<Runnable> mailbox;
+      private final ArrayDeque<Runnable> local = new ArrayDeque<Runnable>();
+      private final int batchSize;
+      private final WaitStrategy idle;
+      private final Thread thread;
+      private volatile boolean running = true;
+      private final PaddedAtomicLong submitting = new PaddedAtomicLong(0);
+
+      private final Consumer<Runnable> runner = new Consumer<Runnable>()
+      {
+         @Override
+         public void accept(Runnable task) { runTask(task); }
+      };
+
+      private EventLoop(String name, int mailboxCapacity, int batchSize, WaitStrategy idle)
+      {
+         this.mailbox = new ManyToOneQueuePadded<Runnable>(mailboxCapacity);
+         this.batchSize = batchSize;
+         this.idle = idle;
+         this.thread = new Thread(this, name);
+      }
+
+      public boolean inLoop()
+      {
+         return Thread.currentThread() == thread;
+      }
+
+      @Override
+      public void execute(Runnable task)
+      {
+         if (task == null)
+            throw new NullPointerException();
+         if (!running)
+            throw new RejectedExecutionException(thread.getName() + " is shut down");
+
+         if (inLoop())
+            local.addLast(task);
+         else
+         {
+            // counted before running is checked again, so either this sees the shutdown or the
+            // loop waits for this offer to finish
+            submitting.incrementAndGet();
+            try
+            {
+               if (!running)
+                  throw new RejectedExecutionException(thread.getName() + " is shut down");
+               while (!mailbox.offer(task))
+               {
+                  if (!running)
+                     throw new RejectedExecutionException(thread.getName() + " is shut down");
+                  Thread.yield();
+               }
+            }
+            finally
+            {
+               submitting.decrementAndGet();
+            }
+            idle.signal();
+         }
+      }
+
+      private void runTask(Runnable task)
+      {
+         try
+         {
+            task.run();
+         }
+         catch (Throwable t)
+         {
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, t);
+         }
+      }
+
+      /**
+       * One pass of the loop.
+       *
+       * @return the number of tasks run
+       */
+      private int runOnce()
+      {
+         int count = 0;
+         for (Runnable task; count < batchSize && (task = local.pollFirst()) != null; count++)
+            runTask(task);
+         return count + mailbox.drain(runner, batchSize);
+      }
+
+      @Override
+      public void run()
+      {
+         int attempt = 0;
+         while (running)
+         {
+            if (runOnce() > 0)
+               attempt = 0;
+            else
+               idle.idle(attempt++);
+         }
+
+         // finish what was accepted before the shutdown, including offers still in flight
+         for (;;)
+         {
+            final boolean quiet = submitting.get() == 0;
+            if (runOnce() == 0)
+            {
+               if (quiet)
+                  break;
+               Thread.yield();
+            }
+         }
+      }
+
+      public void shutdown()
+      {
+         running = false;
+         idle.signal();
+      }
+
+      public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+      {
+         final long millis = Math.max(1, unit.toMillis(timeout));
+         thread.join(millis);
+         return !thread.isAlive();
+      }
+   }
+}
@@ -0,0 +1,225 @@
+package net.dempsy.mechanicalsympathy;
+
+import java.util.function.Supplier;
+
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.PaddedAtomicLong;
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.PaddedLong;
+
+/**
+ * A ring of preallocated, mutable events with a single producer and any number of consumers
+ * that each track their own sequence, after the LMAX Disruptor. A consumer reads through a
+ * {@link SequenceBarrier} that holds it behind the producer and behind whichever other
+ * consumers it depends on, so stages can be chained, run in parallel or joined in a diamond.
+ * The producer is held back by the gating sequences, which should be those of the final stages.
+ *
+ * Sequences are {@link PaddedAtomicLong}s that start at -1 (nothing published or consumed).
+ * Every sequence has a single writer and is published with lazySet.
+ *
+ * <pre>
+ * EventRing&lt;E&gt; ring = new EventRing&lt;E&gt;(factory, 1024, producerWait, consumerWait);
+ * EventProcessor&lt;E&gt; journal = ring.newProcessor(journaller);
+ * EventProcessor&lt;E&gt; replicate = ring.newProcessor(replicator, journal.sequence());
+ * EventProcessor&lt;E&gt; logic = ring.newProcessor(businessLogic, replicate.sequence());
+ * ring.setGatingSequences(logic.sequence());
+ * </pre>
+ */
+public final class EventRing<E>
+{
+   public static final long INITIAL_SEQUENCE = -1L;
+
+   public static interface EventHandler<E>
+   {
+      public void onEvent(E event, long sequence, boolean endOfBatch);
+   }
+
+   private final Object[] events;
+   private final int bufferSize;
+   private final int indexMask;
+
+   private final WaitStrategy producerWait;
+   private final WaitStrategy consumerWait;
+
+   private final PaddedAtomicLong cursor = new PaddedAtomicLong(INITIAL_SEQUENCE); // last published
+   private final PaddedLong nextSequence = new PaddedLong(); // last claimed, producer only
+   private final PaddedLong gatingCache = new PaddedLong(); // producer only
+
+   private volatile PaddedAtomicLong[] gatingSequences = new PaddedAtomicLong[0];
+
+   /**
+    * The wait strategies are shared. The producer waits on producerWait when the ring is full
+    * and every consumer waits on consumerWait when it has caught up.
+    */
+   public EventRing(Supplier<E> factory, int size, WaitStrategy producerWait, WaitStrategy consumerWait)
+   {
+      if (Integer.bitCount(size) != 1)
+         throw new IllegalArgumentException("bufferSize must be a power of 2");
+
+      this.bufferSize = size;
+      this.indexMask = size - 1;
+      this.producerWait = producerWait;
+      this.consumerWait = consumerWait;
+
+      events = new Object[size];
+      for (int i = 0; i < size; i++)
+         events[i] = factory.get();
+
+      nextSequence.value = INITIAL_SEQUENCE;
+      gatingCache.value = INITIAL_SEQUENCE;
+   }
+
+   @SuppressWarnings("unchecked")
+   public final E get(final long sequence)
+   {
+      return (E)events[(int)(sequence & indexMask)];
+   }
+
+   public final PaddedAtomicLong cursor()
+   {
+      return cursor;
+   }
+
+   /**
+    * Set before the producer starts. The producer won't wrap past the slowest of these.
+    */
+   public final void setGatingSequences(PaddedAtomicLong... sequences)
+   {
+      gatingSequences = sequences.clone();
+   }
+
+   private static long minimum(final PaddedAtomicLong[] sequences, long minimum)
+   {
+      for (PaddedAtomicLong sequence : sequences)
+         minimum = Math.min(minimum, sequence.get());
+      return minimum;
+   }
+
+   /**
+    * Claims the next event, waiting for the slowest gating sequence if the ring is full.
+    */
+   public final long next()
+   {
+      final long next = nextSequence.value + 1;
+      final long wrapPoint = next - bufferSize;
+
+      if (gatingCache.value < wrapPoint)
+      {
+         long minimum;
+         for (int attempt = 0; (minimum = minimum(gatingSequences, next - 1)) < wrapPoint; attempt++)
+            producerWait.idle(attempt);
+         gatingCache.value = minimum;
+      }
+
+      nextSequence.value = next;
+      return next;
+   }
+
+   public final void publish(final long sequence)
+   {
+      cursor.lazySet(sequence); // StoreStore memory barrier
+      consumerWait.signal();
+   }
+
+   public final SequenceBarrier newBarrier(PaddedAtomicLong... dependents)
+   {
+      return new SequenceBarrier(cursor, dependents, consumerWait);
+   }
+
+   /**
+    * A processor that runs the handler for each event once the producer has published it and
+    * every one of the dependents has processed it.
+    */
+   public final EventProcessor<E> newProcessor(EventHandler<E> handler, PaddedAtomicLong... dependents)
+   {
+      return new EventProcessor<E>(this, newBarrier(dependents), handler);
+   }
+
+   //=====================================================================================
+
+   public static final class SequenceBarrier
+   {
+      private final PaddedAtomicLong cursor;
+      private final PaddedAtomicLong[] dependents;
+      private final WaitStrategy wait;
+      private volatile boolean alerted = false;
+
+      private SequenceBarrier(PaddedAtomicLong cursor, PaddedAtomicLong[] dependents, WaitStrategy wait)
+      {
+         this.cursor = cursor;
+         this.dependents = dependents.clone();
+         this.wait = wait;
+      }
+
+      /**
+       * Waits until sequence is available and returns the highest available sequence, which
+       * may be well past it. Returns less than sequence if the barrier is alerted.
+       */
+      public final long waitFor(final long sequence)
+      {
+         long available;
+         for (int attempt = 0; (available = minimum(dependents, cursor.get())) < sequence; attempt++)
+         {
+            if (alerted)
+               return available;
+            wait.idle(attempt);
+         }
+         return available;
+      }
+
+      public final void alert()
+      {
+         alerted = true;
+         wait.signal();
+      }
+   }
+
+   //=====================================================================================
+
+   public static final class EventProcessor<E> implements Runnable
+   {
+      private final EventRing<E> ring;
+      private final SequenceBarrier barrier;
+      private final EventHandler<E> handler;
+      private final PaddedAtomicLong sequence = new PaddedAtomicLong(INITIAL_SEQUENCE);
+      private volatile boolean running = true;
+
+      private EventProcessor(EventRing<E> ring, SequenceBarrier barrier, EventHandler<E> handler)
+      {
+         this.ring = ring;
+         this.barrier = barrier;
+         this.handler = handler;
+      }
+
+      public final PaddedAtomicLong sequence()
+      {
+         return sequence;
+      }
+
+      public final void halt()
+      {
+         running = false;
+         barrier.alert();
+      }
+
+      @Override
+      public void run()
+      {
+         long next = sequence.get() + 1;
+         while (running)
+         {
+            final long available = barrier.waitFor(next);
+            if (available < next)
+               continue;
+
+            for (long s = next; s <= available; s++)
+               handler.onEvent(ring.get(s), s, s == available);
+
+            sequence.lazySet(available); // StoreStore memory barrier
+            next = available + 1;
+
+            // downstream stages wait on the consumer strategy, the producer on its own
+            ring.consumerWait.signal();
+            ring.producerWait.signal();
+         }
+      }
+   }
+}
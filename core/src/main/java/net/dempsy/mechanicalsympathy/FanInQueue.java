@@ -0,0 +1,220 @@
+package net.dempsy.mechanicalsympathy;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.OneToOneQueue2Padded;
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.SimpleQueue;
+
+/**
+ * Many producers and one consumer without the producers sharing anything. Every producer
+ * thread gets its own {@link OneToOneQueue2Padded} lane, so an offer touches only that lane's
+ * lines and there's no CAS on a common tail as there is in
+ * {@link MechanicalSympathy.ManyToOneQueuePadded}. The consumer goes around the lanes. Order
+ * is kept within a lane but not across lanes.
+ *
+ * A thread's lane is made the first time it offers, or when it calls {@link #register()}, and
+ * is kept in a {@link ThreadLocal}. Each lane has the full capacity, and a producer whose lane
+ * is full gets false from offer even if other lanes have room, so a fast producer can't starve
+ * the others of space. A producer that's done calls {@link #deregister()}. The consumer removes
+ * a lane once it's deregistered, or its thread has died, and it's been emptied. Lanes are added
+ * and removed by copying the array under a lock, which the consumer only reads.
+ *
+ * By default the consumer stays on a lane until it's empty, which is cheapest since each lane's
+ * head and tail stay in its cache. When fair it takes one element from a lane in poll, or an
+ * even share of the limit in drain, before moving to the next lane.
+ */
+public final class FanInQueue<E> implements SimpleQueue<E>
+{
+   /**
+    * A producer's lane. Only the thread that registered it may offer to it.
+    */
+   public static final class Lane<E>
+   {
+      private final OneToOneQueue2Padded<E> queue;
+      private final Thread owner;
+      private volatile boolean closed = false;
+
+      private Lane(int capacity, Thread owner)
+      {
+         this.queue = new OneToOneQueue2Padded<E>(capacity);
+         this.owner = owner;
+      }
+
+      public final boolean offer(final E o)
+      {
+         if (o == null)
+            throw new NullPointerException();
+         return queue.offer(o);
+      }
+
+      private boolean retired()
+      {
+         return closed || !owner.isAlive();
+      }
+   }
+
+   @SuppressWarnings("unchecked")
+   private volatile Lane<E>[] lanes = (Lane<E>[])new Lane<?>[0];
+   private final ThreadLocal<Lane<E>> local = new ThreadLocal<Lane<E>>();
+
+   private final int laneCapacity;
+   private final boolean fair;
+
+   private int next = 0; // consumer only
+
+   public FanInQueue(int laneCapacity)
+   {
+      this(laneCapacity, false);
+   }
+
+   public FanInQueue(int laneCapacity, boolean fair)
+   {
+      if (Integer.bitCount(laneCapacity) != 1)
+         throw new IllegalArgumentException("bufferSize must be a power of 2");
+
+      this.laneCapacity = laneCapacity;
+      this.fair = fair;
+   }
+
+   /**
+    * @return the calling thread's lane, making it if the thread doesn't have one yet. Offering
+    * to the lane directly saves the {@link ThreadLocal} lookup in {@link #offer(Object)}.
+    */
+   public Lane<E> register()
+   {
+      Lane<E> lane = local.get();
+      if (lane == null)
+      {
+         lane = new Lane<E>(laneCapacity, Thread.currentThread());
+         synchronized(this)
+         {
+            final Lane<E>[] cur = lanes;
+            final Lane<E>[] updated = Arrays.copyOf(cur, cur.length + 1);
+            updated[cur.length] = lane;
+            lanes = updated;
+         }
+         local.set(lane);
+      }
+      return lane;
+   }
+
+   /**
+    * Closes the calling thread's lane. Whatever is already in it will still be polled. Offering
+    * again from the same thread makes a new lane.
+    */
+   public void deregister()
+   {
+      final Lane<E> lane = local.get();
+      if (lane != null)
+      {
+         lane.closed = true;
+         local.remove();
+      }
+   }
+
+   private synchronized void remove(final Lane<E> lane)
+   {
+      final Lane<E>[] cur = lanes;
+      for (int i = 0; i < cur.length; i++)
+      {
+         if (cur[i] == lane)
+         {
+            final Lane<E>[] updated = Arrays.copyOf(cur, cur.length - 1);
+            System.arraycopy(cur, i + 1, updated, i, cur.length - i - 1);
+            lanes = updated;
+            return;
+         }
+      }
+   }
+
+   /**
+    * @return the number of lanes the consumer is going around, including any that are
+    * retired but not yet removed.
+    */
+   public int lanes()
+   {
+      return lanes.length;
+   }
+
+   @Override
+   public final boolean offer(final E o)
+   {
+      Lane<E> lane = local.get();
+      if (lane == null)
+         lane = register();
+      return lane.offer(o);
+   }
+
+   @Override
+   public final E poll()
+   {
+      final Lane<E>[] cur = lanes;
+      for (int i = 0; i < cur.length; i++)
+      {
+         if (next >= cur.length)
+            next = 0;
+         final E ret = cur[next].queue.poll();
+         if (ret != null)
+         {
+            if (fair)
+               next++;
+            return ret;
+         }
+         next++;
+      }
+      return reap(cur);
+   }
+
+   /**
+    * Polls up to limit elements into the consumer going around the lanes, publishing each
+    * lane's head once for what's taken from it.
+    */
+   public final int drain(final Consumer<? super E> consumer, final int limit)
+   {
+      final Lane<E>[] cur = lanes;
+      final int quantum = fair ? Math.max(1, limit / Math.max(1, cur.length)) : limit;
+      int count = 0;
+      int empty = 0; // consecutive lanes that had nothing
+      while (count < limit && empty < cur.length)
+      {
+         if (next >= cur.length)
+            next = 0;
+         final int taken = cur[next++].queue.drain(consumer, Math.min(quantum, limit - count));
+         count += taken;
+         empty = taken == 0 ? empty + 1 : 0;
+      }
+
+      if (count == 0)
+      {
+         final E last = reap(cur);
+         if (last != null)
+         {
+            consumer.accept(last);
+            count++;
+         }
+      }
+      return count;
+   }
+
+   /**
+    * Called by the consumer when every lane came up empty. A retired lane can't get anything
+    * new, so if it's still empty it can go. Checking retirement before polling matters since
+    * the owner may have offered right up until it closed the lane or died.
+    *
+    * @return an element that turned up in a retired lane, or null
+    */
+   private E reap(final Lane<E>[] cur)
+   {
+      for (Lane<E> lane : cur)
+      {
+         if (!lane.retired())
+            continue;
+         final E ret = lane.queue.poll();
+         if (ret != null)
+            return ret;
+         remove(lane);
+      }
+      return null;
+   }
+}
@@ -0,0 +1,303 @@
+package net.dempsy.mechanicalsympathy;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.BatchQueue;
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.OneToOneQueue2Padded;
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.PaddedAtomicLong;
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.PaddedLong;
+
+/**
+ * {@link OneToOneQueue2Padded} with counters that can be read from another thread, typically
+ * through the {@link Metrics} MBean.
+ *
+ * Nothing is added to the path of a successful offer or poll. The offer and poll counts are
+ * the tail and head the queue already publishes and occupancy is their difference. The rest
+ * of the counters are only touched on the slow paths: when the producer finds the queue full,
+ * the consumer finds it empty or either side has to refresh its cached copy of the other's
+ * position. Each counter is a {@link PaddedAtomicLong} with a single writer that publishes it
+ * with lazySet, so neither side ever writes to a line the other side writes to.
+ *
+ * <pre>
+ * InstrumentedOneToOneQueue&lt;E&gt; q = new InstrumentedOneToOneQueue&lt;E&gt;(1024);
+ * ObjectName name = q.register("orders");
+ * </pre>
+ */
+public final class InstrumentedOneToOneQueue<E> implements BatchQueue<E>
+{
+   public final static String domain = "net.dempsy.mechanicalsympathy";
+
+   private final E[] buffer;
+
+   private final PaddedAtomicLong tail = new PaddedAtomicLong(0);
+   private final PaddedAtomicLong head = new PaddedAtomicLong(0);
+
+   private final PaddedLong tailCache = new PaddedLong(); // used in poll
+   private final PaddedLong headCache = new PaddedLong(); // used in offer
+
+   private final PaddedLong offerSideTailCache = new PaddedLong();
+   private final PaddedLong pollSideHeadCache = new PaddedLong();
+
+   // written by the producer only
+   private final PaddedAtomicLong offersFull = new PaddedAtomicLong(0);
+   private final PaddedAtomicLong headCacheRefreshes = new PaddedAtomicLong(0);
+
+   // written by the consumer only
+   private final PaddedAtomicLong pollsEmpty = new PaddedAtomicLong(0);
+   private final PaddedAtomicLong tailCacheRefreshes = new PaddedAtomicLong(0);
+
+   private final int bufferSize;
+   private final int indexMask;
+
+   @SuppressWarnings("unchecked")
+   public InstrumentedOneToOneQueue(int size)
+   {
+      if (Integer.bitCount(size) != 1)
+         throw new IllegalArgumentException("bufferSize must be a power of 2");
+
+      this.bufferSize = size;
+      this.indexMask = size - 1;
+
+      buffer = (E[])(new Object[size]);
+   }
+
+   private static void increment(final PaddedAtomicLong counter)
+   {
+      counter.lazySet(counter.get() + 1); // single writer so no CAS
+   }
+
+   private long refreshHead()
+   {
+      increment(headCacheRefreshes);
+      return headCache.value = head.get();
+   }
+
+   private long refreshTail()
+   {
+      increment(tailCacheRefreshes);
+      return tailCache.value = tail.get();
+   }
+
+   public final boolean offer(final E o)
+   {
+      final long curTail = offerSideTailCache.value;
+      final long wrapPoint = curTail - bufferSize;
+
+      if (headCache.value <= wrapPoint)
+      {
+         if (refreshHead() <= wrapPoint)
+         {
+            increment(offersFull);
+            return false;
+         }
+      }
+
+      buffer[(int)(curTail & indexMask)] = o;
+
+      final long nextTail = curTail + 1;
+      offerSideTailCache.value = nextTail;
+      tail.lazySet(nextTail); // StoreStore memory barrier
+
+      return true;
+   }
+
+   public final E poll()
+   {
+      final long curHead = pollSideHeadCache.value;
+
+      if (curHead >= tailCache.value)
+      {
+         if (curHead >= refreshTail())
+         {
+            increment(pollsEmpty);
+            return null;
+         }
+      }
+
+      final int index = (int)(curHead & indexMask);
+      final E ret = buffer[index];
+
+      final long nextHead = curHead + 1;
+      pollSideHeadCache.value = nextHead;
+      head.lazySet(nextHead); // StoreStore memory barrier
+
+      return ret;
+   }
+
+   public final int drain(final Consumer<? super E> consumer, final int limit)
+   {
+      final long curHead = pollSideHeadCache.value;
+
+      if (tailCache.value - curHead < limit)
+         refreshTail();
+
+      final int count = (int)Math.min(tailCache.value - curHead, limit);
+      if (count <= 0)
+      {
+         increment(pollsEmpty);
+         return 0;
+      }
+
+      int i = 0;
+      try
+      {
+         for (; i < count; i++)
+            consumer.accept(buffer[(int)((curHead + i) & indexMask)]);
+      }
+      finally
+      {
+         // publish what was taken even if the consumer threw, including the one it threw on
+         final long nextHead = curHead + (i < count ? i + 1 : count);
+         pollSideHeadCache.value = nextHead;
+         head.lazySet(nextHead); // StoreStore memory barrier
+      }
+
+      return count;
+   }
+
+   public final int fill(final Supplier<? extends E> supplier, final int limit)
+   {
+      final long curTail = offerSideTailCache.value;
+
+      if (headCache.value + bufferSize - curTail < limit)
+         refreshHead();
+
+      final int count = (int)Math.min(headCache.value + bufferSize - curTail, limit);
+      if (count <= 0)
+      {
+         increment(offersFull);
+         return 0;
+      }
+
+      for (int i = 0; i < count; i++)
+         buffer[(int)((curTail + i) & indexMask)] = supplier.get();
+
+      final long nextTail = curTail + count;
+      offerSideTailCache.value = nextTail;
+      tail.lazySet(nextTail); // StoreStore memory barrier
+
+      return count;
+   }
+
+   public final int offer(final E[] src, final int off, final int len)
+   {
+      final long curTail = offerSideTailCache.value;
+
+      if (headCache.value + bufferSize - curTail < len)
+         refreshHead();
+
+      final int count = (int)Math.min(headCache.value + bufferSize - curTail, len);
+      if (count <= 0)
+      {
+         increment(offersFull);
+         return 0;
+      }
+
+      // at most two copies, one up to the end of the buffer and one for the wrap
+      final int index = (int)(curTail & indexMask);
+      final int firstCount = Math.min(count, bufferSize - index);
+      System.arraycopy(src, off, buffer, index, firstCount);
+      System.arraycopy(src, off + firstCount, buffer, 0, count - firstCount);
+
+      final long nextTail = curTail + count;
+      offerSideTailCache.value = nextTail;
+      tail.lazySet(nextTail); // StoreStore memory barrier
+
+      return count;
+   }
+
+   //=====================================================================================
+   // readable from any thread
+
+   public int capacity() { return bufferSize; }
+   public long offers() { return tail.get(); }
+   public long polls() { return head.get(); }
+   public long offersFull() { return offersFull.get(); }
+   public long pollsEmpty() { return pollsEmpty.get(); }
+   public long headCacheRefreshes() { return headCacheRefreshes.get(); }
+   public long tailCacheRefreshes() { return tailCacheRefreshes.get(); }
+
+   public int occupancy()
+   {
+      // read head first so a concurrent poll can't make it pass the tail we read
+      final long curHead = head.get();
+      return (int)(tail.get() - curHead);
+   }
+
+   /**
+    * Registers a {@link Metrics} MBean for this queue on the platform MBeanServer as
+    * {@code net.dempsy.mechanicalsympathy:type=Queue,name=<name>}.
+    */
+   public ObjectName register(String name) throws JMException
+   {
+      final ObjectName objectName = new ObjectName(domain + ":type=Queue,name=" + ObjectName.quote(name));
+      ManagementFactory.getPlatformMBeanServer().registerMBean(new Metrics(this), objectName);
+      return objectName;
+   }
+
+   public static void unregister(ObjectName name) throws JMException
+   {
+      final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      if (server.isRegistered(name))
+         server.unregisterMBean(name);
+   }
+
+   //=====================================================================================
+
+   public static interface MetricsMBean
+   {
+      public int getCapacity();
+      public int getOccupancy();
+      public long getOffers();
+      public long getPolls();
+      public long getOffersFull();
+      public long getPollsEmpty();
+      public long getHeadCacheRefreshes();
+      public long getTailCacheRefreshes();
+
+      /**
+       * Messages polled per second since the previous call (or since registration).
+       */
+      public double getThroughput();
+   }
+
+   public static final class Metrics implements MetricsMBean
+   {
+      private final InstrumentedOneToOneQueue<?> q;
+      private long lastPolls;
+      private long lastTime;
+
+      public Metrics(InstrumentedOneToOneQueue<?> q)
+      {
+         this.q = q;
+         this.lastPolls = q.polls();
+         this.lastTime = System.nanoTime();
+      }
+
+      @Override public int getCapacity() { return q.capacity(); }
+      @Override public int getOccupancy() { return q.occupancy(); }
+      @Override public long getOffers() { return q.offers(); }
+      @Override public long getPolls() { return q.polls(); }
+      @Override public long getOffersFull() { return q.offersFull(); }
+      @Override public long getPollsEmpty() { return q.pollsEmpty(); }
+      @Override public long getHeadCacheRefreshes() { return q.headCacheRefreshes(); }
+      @Override public long getTailCacheRefreshes() { return q.tailCacheRefreshes(); }
+
+      @Override
+      public synchronized double getThroughput()
+      {
+         final long polls = q.polls();
+         final long now = System.nanoTime();
+         final double ret = now == lastTime ? 0.0 : (polls - lastPolls) * 1000000000.0 / (now - lastTime);
+         lastPolls = polls;
+         lastTime = now;
+         return ret;
+      }
+   }
+}
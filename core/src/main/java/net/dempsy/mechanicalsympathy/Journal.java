@@ -0,0 +1,426 @@
+package net.dempsy.mechanicalsympathy;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.PaddedLong;
+
+/**
+ * Append only journal of fixed size records in rolling memory mapped segment files, so that
+ * everything passing through can be replayed after a crash without a stage copying it out to a
+ * log. There's a single appender and any number of {@link Tailer}s, in this process or in
+ * others, each reading from whatever index it likes straight out of the mapping.
+ *
+ * The appender claims a record, encodes it in place and commits it. Committing publishes the
+ * segment's commit count with a release store, the same single writer discipline as the tail
+ * of {@link MechanicalSympathy.OneToOneQueue2Padded}, and a tailer reads it with an acquire
+ * load, caching it until it catches up. Anything past the commit count is ignored, so a record
+ * torn by a crash is never seen. When a segment is full the appender creates the next one and
+ * a tailer that reaches the end of a segment moves on to it once it exists. A crash while the
+ * next segment is being created can leave it without its header. Nothing was committed to it,
+ * so reopening the journal initializes it again and a tailer from the directory takes its
+ * sizes from the segment before it.
+ *
+ * The mapped pages belong to the page cache, so a committed record survives the process dying
+ * whatever the {@link ForcePolicy}. The policy decides how much can be lost if the machine goes
+ * down. Java 11 can only force a whole mapping, so forcing costs what's dirty in the segment.
+ *
+ * Segments are named by their number, {@code 00000000000000000000.journal} onwards, and laid
+ * out as
+ *
+ * <pre>
+ *   0   record size
+ *   8   records per segment
+ *   16  ready (written last so a tailer can tell the segment is initialized)
+ *   128 commit count
+ *   256 records
+ * </pre>
+ *
+ * <pre>
+ * Journal journal = new Journal(dir, 64, 1024 * 1024, ForcePolicy.OnRoll, 0);
+ * int offset = journal.claim();
+ * journal.buffer().putLong(offset, value);
+ * journal.commit();
+ *
+ * Tailer tailer = Journal.tailer(dir, 0);
+ * while (tailer.next())
+ *    ... tailer.getLong(0) ...
+ * </pre>
+ */
+public final class Journal implements Closeable
+{
+   public enum ForcePolicy
+   {
+      /**
+       * Never force. The OS writes the pages back when it gets around to it.
+       */
+      Never,
+
+      /**
+       * Force a segment when it's full and when the journal is closed.
+       */
+      OnRoll,
+
+      /**
+       * Force after every batch of commits, on roll and on close.
+       */
+      Batch,
+
+      /**
+       * Force after every commit.
+       */
+      EveryCommit
+   }
+
+   public static final String SUFFIX = ".journal";
+   public static final int ALIGNMENT = 8;
+
+   private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+   private static final int RECORD_SIZE_OFFSET = 0;
+   private static final int RECORDS_PER_SEGMENT_OFFSET = 8;
+   private static final int READY_OFFSET = 16;
+   private static final int COMMIT_OFFSET = 128;
+   private static final int RECORDS_OFFSET = 256;
+
+   private final File dir;
+   private final int recordSize;
+   private final int recordsPerSegment;
+   private final ForcePolicy force;
+   private final int forceBatch;
+
+   private MappedByteBuffer buffer;
+   private long segment;
+   private final PaddedLong committed = new PaddedLong(); // in the current segment
+   private int commitsSinceForce = 0; // commits since the last force under Batch
+
+   /**
+    * Opens the journal in dir for appending, carrying on after the last committed record if
+    * there already is one. The record size is rounded up to a multiple of {@link #ALIGNMENT}.
+    * forceBatch is only used by {@link ForcePolicy#Batch}.
+    */
+   public Journal(File dir, int recordSize, int recordsPerSegment, ForcePolicy force, int forceBatch) throws IOException
+   {
+      if (recordSize <= 0 || recordsPerSegment <= 0)
+         throw new IllegalArgumentException("recordSize and recordsPerSegment must be positive");
+      if (force == ForcePolicy.Batch && forceBatch <= 0)
+         throw new IllegalArgumentException("forceBatch must be positive for " + ForcePolicy.Batch);
+
+      this.dir = dir;
+      this.recordSize = align(recordSize);
+      this.recordsPerSegment = recordsPerSegment;
+      this.force = force;
+      this.forceBatch = forceBatch;
+
+      if (RECORDS_OFFSET + ((long)this.recordSize * recordsPerSegment) > Integer.MAX_VALUE)
+         throw new IllegalArgumentException("a segment can't be larger than " + Integer.MAX_VALUE + " bytes");
+      if (!dir.isDirectory() && !dir.mkdirs())
+         throw new IOException("couldn't create the journal directory \"" + dir + "\"");
+
+      final long last = lastSegment(dir);
+      segment = last < 0 ? 0 : last;
+      if (last < 0)
+         buffer = createSegment(segment);
+      else if (header(dir, last) != null)
+         buffer = openSegment(segment);
+      else
+      {
+         // the appender died creating the last segment so it's made again, as long as it'll
+         // match the one before it
+         if (last > 0)
+         {
+            final ByteBuffer previous = header(dir, last - 1);
+            if (previous == null || previous.getLong(RECORD_SIZE_OFFSET) != this.recordSize
+                  || previous.getLong(RECORDS_PER_SEGMENT_OFFSET) != recordsPerSegment)
+               throw new IOException("\"" + segmentFile(dir, last - 1) + "\" isn't a segment with " + recordsPerSegment + " records of "
+                     + this.recordSize + " bytes");
+         }
+         buffer = createSegment(segment);
+      }
+      committed.value = (long)LONGS.getAcquire(buffer, COMMIT_OFFSET);
+   }
+
+   private static int align(int length)
+   {
+      return (length + ALIGNMENT - 1) & ~(ALIGNMENT - 1);
+   }
+
+   static File segmentFile(File dir, long segment)
+   {
+      return new File(dir, String.format("%020d%s", segment, SUFFIX));
+   }
+
+   /**
+    * @return the highest numbered segment in dir, or -1 if there isn't one.
+    */
+   private static long lastSegment(File dir)
+   {
+      long ret = -1;
+      final String[] names = dir.list();
+      if (names != null)
+      {
+         for (String name : names)
+         {
+            if (!name.endsWith(SUFFIX))
+               continue;
+            try
+            {
+               ret = Math.max(ret, Long.parseLong(name.substring(0, name.length() - SUFFIX.length())));
+            }
+            catch (NumberFormatException e)
+            {}
+         }
+      }
+      return ret;
+   }
+
+   /**
+    * @return the header of a segment, or null if it's missing or was never initialized.
+    */
+   private static ByteBuffer header(File dir, long segment) throws IOException
+   {
+      final File path = segmentFile(dir, segment);
+      if (path.length() < RECORDS_OFFSET)
+         return null;
+
+      try (RandomAccessFile file = new RandomAccessFile(path, "r"))
+      {
+         final ByteBuffer ret = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, RECORDS_OFFSET).order(ByteOrder.nativeOrder());
+         return (long)LONGS.getAcquire(ret, READY_OFFSET) == 0 ? null : ret;
+      }
+   }
+
+   private long segmentLength()
+   {
+      return RECORDS_OFFSET + ((long)recordSize * recordsPerSegment);
+   }
+
+   private MappedByteBuffer createSegment(long number) throws IOException
+   {
+      try (RandomAccessFile file = new RandomAccessFile(segmentFile(dir, number), "rw"))
+      {
+         file.setLength(segmentLength());
+         // the mapping stays valid after the file is closed and goes away when the buffer is collected
+         final MappedByteBuffer ret = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentLength());
+         ret.order(ByteOrder.nativeOrder());
+         ret.putLong(RECORD_SIZE_OFFSET, recordSize);
+         ret.putLong(RECORDS_PER_SEGMENT_OFFSET, recordsPerSegment);
+         ret.putLong(COMMIT_OFFSET, 0); // the file may be left over from a crash
+         LONGS.setRelease(ret, READY_OFFSET, 1L);
+         return ret;
+      }
+   }
+
+   private MappedByteBuffer openSegment(long number) throws IOException
+   {
+      final File path = segmentFile(dir, number);
+      try (RandomAccessFile file = new RandomAccessFile(path, "rw"))
+      {
+         final MappedByteBuffer ret = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, file.length());
+         ret.order(ByteOrder.nativeOrder());
+         if (file.length() != segmentLength() || ret.getLong(RECORD_SIZE_OFFSET) != recordSize
+               || ret.getLong(RECORDS_PER_SEGMENT_OFFSET) != recordsPerSegment)
+            throw new IOException("\"" + path + "\" isn't a segment with " + recordsPerSegment + " records of " + recordSize + " bytes");
+         return ret;
+      }
+   }
+
+   public final int recordSize()
+   {
+      return recordSize;
+   }
+
+   /**
+    * The buffer to encode a claimed record into. It changes when the journal rolls to a new
+    * segment so get it after {@link #claim()}.
+    */
+   public final ByteBuffer buffer()
+   {
+      return buffer;
+   }
+
+   /**
+    * @return the index the next committed record will have, which is the number of records in
+    * the journal.
+    */
+   public final long index()
+   {
+      return (segment * recordsPerSegment) + committed.value;
+   }
+
+   /**
+    * Reserves the next record, rolling to a new segment if the current one is full. The record
+    * is {@link #recordSize()} bytes at the returned offset in {@link #buffer()} and is
+    * published by {@link #commit()}. Only one claim can be outstanding at a time.
+    */
+   public final int claim() throws IOException
+   {
+      if (committed.value == recordsPerSegment)
+      {
+         if (force != ForcePolicy.Never)
+            buffer.force();
+         buffer = createSegment(++segment);
+         committed.value = 0;
+         commitsSinceForce = 0;
+      }
+      return RECORDS_OFFSET + (int)(committed.value * recordSize);
+   }
+
+   public final void commit()
+   {
+      final long nextCommitted = committed.value + 1;
+      committed.value = nextCommitted;
+      LONGS.setRelease(buffer, COMMIT_OFFSET, nextCommitted);
+
+      if (force == ForcePolicy.EveryCommit || (force == ForcePolicy.Batch && ++commitsSinceForce == forceBatch))
+      {
+         buffer.force();
+         commitsSinceForce = 0;
+      }
+   }
+
+   /**
+    * Forces whatever hasn't been unless the policy is {@link ForcePolicy#Never}.
+    */
+   @Override
+   public void close()
+   {
+      if (force != ForcePolicy.Never)
+         buffer.force();
+   }
+
+   /**
+    * @return a tailer of this journal starting at index.
+    */
+   public Tailer tailer(long index)
+   {
+      return new Tailer(dir, recordSize, recordsPerSegment, index);
+   }
+
+   /**
+    * @return a tailer of the journal in dir starting at index, taking the record size and
+    * segment size from the last initialized segment.
+    */
+   public static Tailer tailer(File dir, long index) throws IOException
+   {
+      final long last = lastSegment(dir);
+      if (last < 0)
+         throw new IOException("\"" + dir + "\" doesn't have any journal segments");
+
+      // only the last segment can be uninitialized, and only if the appender died creating it
+      ByteBuffer header = header(dir, last);
+      if (header == null && last > 0)
+         header = header(dir, last - 1);
+      if (header == null)
+         throw new IOException("\"" + dir + "\" doesn't have an initialized journal segment");
+      return new Tailer(dir, (int)header.getLong(RECORD_SIZE_OFFSET), (int)header.getLong(RECORDS_PER_SEGMENT_OFFSET), index);
+   }
+
+   //=====================================================================================
+
+   /**
+    * Reads committed records in order from a starting index. {@link #next()} moves to the next
+    * record and the accessors then read it straight from the mapped segment. A tailer is used
+    * by one thread and doesn't hold the appender back in any way.
+    */
+   public static final class Tailer
+   {
+      private final File dir;
+      private final int recordSize;
+      private final int recordsPerSegment;
+
+      private ByteBuffer buffer = null;
+      private long segment;
+      private long position; // next record in the segment
+      private long commitCache = 0;
+
+      private long index = -1;
+      private int offset = -1;
+
+      private Tailer(File dir, int recordSize, int recordsPerSegment, long index)
+      {
+         this.dir = dir;
+         this.recordSize = recordSize;
+         this.recordsPerSegment = recordsPerSegment;
+         this.segment = index / recordsPerSegment;
+         this.position = index % recordsPerSegment;
+      }
+
+      /**
+       * Maps the current segment if it exists and has been initialized.
+       */
+      private boolean map()
+      {
+         final File path = segmentFile(dir, segment);
+         final long length = RECORDS_OFFSET + ((long)recordSize * recordsPerSegment);
+         if (path.length() != length)
+            return false;
+
+         try (RandomAccessFile file = new RandomAccessFile(path, "r"))
+         {
+            final ByteBuffer mapped = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length).order(ByteOrder.nativeOrder());
+            if ((long)LONGS.getAcquire(mapped, READY_OFFSET) == 0)
+               return false;
+            buffer = mapped;
+            commitCache = 0;
+            return true;
+         }
+         catch (IOException e)
+         {
+            return false;
+         }
+      }
+
+      /**
+       * @return true if there was another committed record to move to, false if the tailer has
+       * caught up with the appender.
+       */
+      public final boolean next()
+      {
+         if (position == recordsPerSegment)
+         {
+            segment++;
+            position = 0;
+            buffer = null;
+         }
+
+         if (buffer == null && !map())
+            return false;
+
+         if (position >= commitCache)
+         {
+            commitCache = (long)LONGS.getAcquire(buffer, COMMIT_OFFSET);
+            if (position >= commitCache)
+               return false;
+         }
+
+         index = (segment * recordsPerSegment) + position;
+         offset = RECORDS_OFFSET + (int)(position * recordSize);
+         position++;
+         return true;
+      }
+
+      /**
+       * @return the index of the current record.
+       */
+      public final long index() { return index; }
+
+      /**
+       * The current record starts at offset() in buffer() and runs for recordSize() bytes.
+       */
+      public final ByteBuffer buffer() { return buffer; }
+      public final int offset() { return offset; }
+      public final int recordSize() { return recordSize; }
+
+      public final int getInt(int index) { return buffer.getInt(offset + index); }
+      public final long getLong(int index) { return buffer.getLong(offset + index); }
+   }
+}
@@ -0,0 +1,294 @@
+package net.dempsy.mechanicalsympathy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+
+import net.dempsy.mechanicalsympathy.Journal.ForcePolicy;
+import net.dempsy.mechanicalsympathy.Journal.Tailer;
+
+/**
+ * Append throughput and tailer latency of a {@link Journal} under each {@link ForcePolicy}.
+ * Every run starts from an empty journal. One thread appends records holding their index and
+ * the {@link System#nanoTime()} at which they were claimed while the tailers follow from index
+ * 0 and record how long each record took to reach them. Once the appender is done a new
+ * tailer replays the whole journal from the start, which is what recovery after a crash
+ * would do. Before the runs the journal is left as a crash while it was rolling would leave
+ * it, to check it can still be replayed and reopened.
+ *
+ * The journal goes in the java.io.tmpdir by default, which may be a tmpfs where forcing costs
+ * nothing. Point -dir at a real disk to see what the policies cost. {@link ForcePolicy#EveryCommit}
+ * forces the whole segment every time, so it's only run when it's asked for, and it should be
+ * given far fewer messages.
+ *
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar net.dempsy.mechanicalsympathy.JournalBenchmark \
+ *     -dir /var/tmp/journal -messages 1000000 Never OnRoll Batch
+ * </pre>
+ */
+public class JournalBenchmark
+{
+   private final File dir;
+   private final int recordSize;
+   private final int recordsPerSegment;
+   private final int numMessages;
+   private final int numTailers;
+   private final int forceBatch;
+
+   public JournalBenchmark(File dir, int recordSize, int recordsPerSegment, int numMessages, int numTailers, int forceBatch)
+   {
+      this.dir = dir;
+      this.recordSize = recordSize;
+      this.recordsPerSegment = recordsPerSegment;
+      this.numMessages = numMessages;
+      this.numTailers = numTailers;
+      this.forceBatch = forceBatch;
+   }
+
+   public static final class Result
+   {
+      public final long appendNanos;
+      public final long replayNanos;
+      public final Histogram histogram;
+
+      public Result(long appendNanos, long replayNanos, Histogram histogram)
+      {
+         this.appendNanos = appendNanos;
+         this.replayNanos = replayNanos;
+         this.histogram = histogram;
+      }
+   }
+
+   private void clear()
+   {
+      final File[] files = dir.listFiles();
+      if (files != null)
+         for (File file : files)
+            if (file.getName().endsWith(Journal.SUFFIX))
+               file.delete();
+   }
+
+   private static long opsPerSecond(long messages, long elapsedNanos)
+   {
+      return (long)((double)messages * TimeUnit.SECONDS.toNanos(1) / elapsedNanos);
+   }
+
+   public Result run(final ForcePolicy force) throws Throwable
+   {
+      clear();
+      final Journal journal = new Journal(dir, recordSize, recordsPerSegment, force, forceBatch);
+      final CountDownLatch latch = new CountDownLatch(numTailers);
+      final Histogram[] histograms = new Histogram[numTailers];
+      final List<Thread> tailers = new ArrayList<Thread>();
+
+      for (int t = 0; t < numTailers; t++)
+      {
+         final Tailer tailer = journal.tailer(0);
+         final Histogram histogram = histograms[t] = new Histogram(LatencyBenchmark.highestTrackableLatency, 3);
+         tailers.add(new Thread(new Runnable()
+         {
+            @Override
+            public void run()
+            {
+               for (int i = 0; i < numMessages; i++)
+               {
+                  while (!tailer.next()) Thread.yield();
+                  final long latency = System.nanoTime() - tailer.getLong(8);
+                  if (tailer.getLong(0) != i)
+                     System.out.println("ERROR: " + tailer.getLong(0) + " didn't match the expected value " + i);
+                  histogram.recordValue(Math.min(latency, LatencyBenchmark.highestTrackableLatency));
+               }
+               latch.countDown();
+            }
+         }, "tailer-" + t));
+      }
+
+      for (Thread tailer : tailers)
+         tailer.start();
+      Thread.sleep(100);
+
+      final long startTime = System.nanoTime();
+      for (int i = 0; i < numMessages; i++)
+      {
+         final int offset = journal.claim();
+         journal.buffer().putLong(offset, i);
+         journal.buffer().putLong(offset + 8, System.nanoTime());
+         journal.commit();
+      }
+      final long appendNanos = System.nanoTime() - startTime;
+      journal.close();
+
+      latch.await();
+      for (Thread tailer : tailers)
+         tailer.join();
+
+      // replay everything from the start with a tailer that only has the directory to go on
+      final Tailer replay = Journal.tailer(dir, 0);
+      final long replayStart = System.nanoTime();
+      long count = 0;
+      while (replay.next())
+      {
+         if (replay.getLong(0) != count)
+            System.out.println("ERROR: " + replay.getLong(0) + " didn't match the expected value " + count);
+         count++;
+      }
+      final long replayNanos = System.nanoTime() - replayStart;
+      if (count != numMessages)
+         System.out.println("ERROR: replayed " + count + " records rather than " + numMessages);
+
+      final Histogram histogram = new Histogram(LatencyBenchmark.highestTrackableLatency, 3);
+      for (Histogram h : histograms)
+         histogram.add(h);
+      clear();
+      return new Result(appendNanos, replayNanos, histogram);
+   }
+
+   /**
+    * Fills a segment and then leaves the next one the right length but without its header, as
+    * the appender dying while it rolls would, and checks that the journal can still be tailed
+    * from the directory, that reopening it with other sizes is refused and that reopening it
+    * carries on where it left off.
+    */
+   public void checkTornRoll() throws IOException
+   {
+      clear();
+      try (Journal journal = new Journal(dir, recordSize, recordsPerSegment, ForcePolicy.Never, forceBatch))
+      {
+         for (int i = 0; i < recordsPerSegment; i++)
+         {
+            final int offset = journal.claim();
+            journal.buffer().putLong(offset, i);
+            journal.commit();
+         }
+      }
+      try (RandomAccessFile file = new RandomAccessFile(Journal.segmentFile(dir, 1), "rw"))
+      {
+         file.setLength(Journal.segmentFile(dir, 0).length());
+      }
+
+      final Tailer tailer = Journal.tailer(dir, 0);
+      try (Journal journal = new Journal(dir, recordSize * 2, recordsPerSegment, ForcePolicy.Never, forceBatch))
+      {
+         System.out.println("ERROR: reopened a torn roll with a record size of " + (recordSize * 2) + " rather than " + recordSize);
+      }
+      catch (IOException e)
+      {}
+
+      try (Journal journal = new Journal(dir, recordSize, recordsPerSegment, ForcePolicy.Never, forceBatch))
+      {
+         if (journal.index() != recordsPerSegment)
+            System.out.println("ERROR: reopened at " + journal.index() + " rather than " + recordsPerSegment);
+         final int offset = journal.claim();
+         journal.buffer().putLong(offset, recordsPerSegment);
+         journal.commit();
+      }
+
+      long count = 0;
+      while (tailer.next())
+      {
+         if (tailer.getLong(0) != count)
+            System.out.println("ERROR: " + tailer.getLong(0) + " didn't match the expected value " + count);
+         count++;
+      }
+      if (count != recordsPerSegment + 1)
+         System.out.println("ERROR: tailed " + count + " records after a torn roll rather than " + (recordsPerSegment + 1));
+      clear();
+   }
+
+   public void runTests(final ForcePolicy force, final int runs) throws Throwable
+   {
+      final String prefix = force == ForcePolicy.Batch ? String.format("%s of %,d", force, forceBatch) : force.toString();
+      final long[] results = new long[runs];
+      for (int run = 0; run < runs; run++)
+      {
+         final Result result = run(force);
+         results[run] = opsPerSecond(numMessages, result.appendNanos);
+         System.out.println(LatencyBenchmark.format(String.format("%s append %,d ops/sec replay %,d ops/sec tailer latency", prefix, results[run],
+               opsPerSecond(numMessages, result.replayNanos)), result.histogram));
+      }
+      System.out.format("%s append %s%n", prefix, Statistics.of(results));
+   }
+
+   public static void main(String[] args) throws Throwable
+   {
+      File dir = new File(System.getProperty("java.io.tmpdir"), "mechanicalsympathy-" + ProcessHandle.current().pid() + "-journal");
+      int recordSize = 64;
+      int recordsPerSegment = 1024 * 1024;
+      int numMessages = 1024 * 1024 * 4;
+      int numTailers = 1;
+      int forceBatch = 1024;
+      int runs = MechanicalSympathy.numRuns;
+      List<ForcePolicy> policies = new ArrayList<ForcePolicy>();
+
+      for (int i = 0; i < args.length; i++)
+      {
+         final String arg = args[i];
+         if ("-dir".equals(arg) && i < args.length - 1)
+            dir = new File(args[++i]);
+         else if ("-record".equals(arg) && i < args.length - 1)
+            recordSize = Integer.parseInt(args[++i]);
+         else if ("-segment".equals(arg) && i < args.length - 1)
+            recordsPerSegment = Integer.parseInt(args[++i]);
+         else if ("-messages".equals(arg) && i < args.length - 1)
+            numMessages = Integer.parseInt(args[++i]);
+         else if ("-tailers".equals(arg) && i < args.length - 1)
+            numTailers = Integer.parseInt(args[++i]);
+         else if ("-batch".equals(arg) && i < args.length - 1)
+            forceBatch = Integer.parseInt(args[++i]);
+         else if ("-runs".equals(arg) && i < args.length - 1)
+            runs = Integer.parseInt(args[++i]);
+         else if (arg.startsWith("-"))
+         {
+            usage();
+            return;
+         }
+         else
+            policies.add(ForcePolicy.valueOf(arg));
+      }
+
+      if (recordSize < 16)
+      {
+         System.out.println("the record size has to be at least 16 to hold the index and timestamp");
+         return;
+      }
+      if (policies.isEmpty())
+         for (ForcePolicy force : ForcePolicy.values())
+            if (force != ForcePolicy.EveryCommit)
+               policies.add(force);
+
+      JournalBenchmark o = new JournalBenchmark(dir, recordSize, recordsPerSegment, numMessages, numTailers, forceBatch);
+      try
+      {
+         o.checkTornRoll();
+         for (ForcePolicy force : policies)
+            o.runTests(force, runs);
+      }
+      finally
+      {
+         o.clear();
+         dir.delete();
+      }
+   }
+
+   public static void usage()
+   {
+      System.out.println("usage: java " + JournalBenchmark.class.getName() + " [options] [force policies...]");
+      System.out.println("        -dir path         journal directory, emptied before each run (default under java.io.tmpdir)");
+      System.out.println("        -record n         record size in bytes, at least 16 (default 64)");
+      System.out.println("        -segment n        records per segment file (default " + (1024 * 1024) + ")");
+      System.out.println("        -messages n       records appended per run (default " + (1024 * 1024 * 4) + ")");
+      System.out.println("        -tailers n        tailers following the appender (default 1)");
+      System.out.println("        -batch n          commits between forces for Batch (default 1024)");
+      System.out.println("        -runs n           runs of each policy (default " + MechanicalSympathy.numRuns + ")");
+      System.out.print("      force policies are");
+      for (ForcePolicy force : ForcePolicy.values())
+         System.out.print(" " + force);
+      System.out.println(" and default to all but " + ForcePolicy.EveryCommit);
+   }
+}
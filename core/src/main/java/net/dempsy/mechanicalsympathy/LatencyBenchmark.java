@@ -0,0 +1,302 @@
+package net.dempsy.mechanicalsympathy;
+
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.SimpleQueue;
+
+/**
+ * Per-message latency through a queue. The producer stores the {@link System#nanoTime()} at
+ * which each message was (or should have been) offered and the consumer records the delta when
+ * it's polled.
+ *
+ * The send times go in an array allocated before the run, indexed by message number, which the
+ * consumer can follow since the queues are FIFO. Every message is the same preallocated object,
+ * so boxing the timestamp doesn't add to the producer's allocation and what
+ * {@link AllocationProbe} reports is the queue's own.
+ *
+ * When a target rate is given the producer sends on a fixed schedule and stamps each message
+ * with its scheduled send time rather than the time it actually got into the queue. A producer
+ * stuck behind a full queue then charges the wait to every message that should have gone out
+ * in the meantime, which corrects for coordinated omission. Pass -uncorrected to stamp the
+ * actual send time instead and see what the correction hides.
+ *
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar net.dempsy.mechanicalsympathy.LatencyBenchmark \
+ *     -rate 1000000,5000000 OneToOneQueue2Padded ArrayBlockingQueue
+ * </pre>
+ */
+public class LatencyBenchmark
+{
+   public final static double[] percentiles = { 50.0, 99.0, 99.9, 99.99 };
+   public final static long highestTrackableLatency = TimeUnit.SECONDS.toNanos(10);
+
+   private final static Long MESSAGE = 777L;
+
+   private final int capacity;
+   private final int numMessages;
+   private final int numWarmup;
+   private final boolean correctForCoordinatedOmission;
+
+   public LatencyBenchmark(int capacity, int numMessages, int numWarmup, boolean correctForCoordinatedOmission)
+   {
+      this.capacity = capacity;
+      this.numMessages = numMessages;
+      this.numWarmup = numWarmup;
+      this.correctForCoordinatedOmission = correctForCoordinatedOmission;
+   }
+
+   public static final class Result
+   {
+      public final Histogram histogram;
+      public final long elapsedNanos;
+      public final long producerCpuNanos;
+      public final long consumerCpuNanos;
+      public final AllocationProbe allocation;
+      public final boolean pinned; // false if the consumer couldn't be pinned to the cpu it was given
+      
+      public Result(Histogram histogram, long elapsedNanos, long producerCpuNanos, long consumerCpuNanos, AllocationProbe allocation, boolean pinned)
+      {
+         this.histogram = histogram;
+         this.elapsedNanos = elapsedNanos;
+         this.producerCpuNanos = producerCpuNanos;
+         this.consumerCpuNanos = consumerCpuNanos;
+         this.allocation = allocation;
+         this.pinned = pinned;
+      }
+      
+      public long opsPerSecond()
+      {
+         return (long)((double)histogram.getTotalCount() * TimeUnit.SECONDS.toNanos(1) / elapsedNanos);
+      }
+   }
+
+   /**
+    * Runs one producer and one consumer over a new queue of the given type, both yielding
+    * when they can't make progress. A rate of 0 means the producer sends as fast as the queue
+    * will take the messages.
+    */
+   public Histogram measure(final QueueType type, final long messagesPerSecond) throws InterruptedException
+   {
+      return measure(type, messagesPerSecond, new WaitStrategy.Yield(), new WaitStrategy.Yield()).histogram;
+   }
+
+   /**
+    * Same as {@link #measure(QueueType, long)} with the given wait strategies on each side.
+    * The elapsed time and the CPU time used by each side only cover the measured messages.
+    */
+   public Result measure(final QueueType type, final long messagesPerSecond, final WaitStrategy producerWait, final WaitStrategy consumerWait)
+         throws InterruptedException
+   {
+      return measure(type, messagesPerSecond, producerWait, consumerWait, -1);
+   }
+
+   /**
+    * Same as {@link #measure(QueueType, long, WaitStrategy, WaitStrategy)} with the consumer
+    * pinned to the given cpu through {@link Affinity}, or left alone if it's negative. The
+    * producer is the calling thread so pinning it is up to the caller. If the consumer can't be
+    * pinned the run still happens and the result says so.
+    */
+   public Result measure(final QueueType type, final long messagesPerSecond, final WaitStrategy producerWait, final WaitStrategy consumerWait,
+         final int consumerCpu) throws InterruptedException
+   {
+      final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+      final SimpleQueue<Long> q = type.create(capacity);
+      final Histogram histogram = new Histogram(highestTrackableLatency, 3);
+      final int total = numWarmup + numMessages;
+      final long[] sent = new long[total]; // written before the offer and read after the poll
+      final CountDownLatch started = new CountDownLatch(1);
+      final CountDownLatch finished = new CountDownLatch(1);
+      final long[] consumerTimes = new long[3]; // cpu time and bytes allocated over the measured messages and when the last one arrived
+      final AllocationProbe probe = new AllocationProbe();
+      final boolean[] pinned = { true };
+
+      Thread consumer = new Thread(new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            if (consumerCpu >= 0 && !Affinity.pin(consumerCpu))
+            {
+               System.out.println("WARNING: couldn't pin the consumer to cpu " + consumerCpu);
+               pinned[0] = false;
+            }
+            started.countDown();
+            for (int i = 0; i < total; i++)
+            {
+               if (i == numWarmup)
+               {
+                  consumerTimes[0] = threads.getCurrentThreadCpuTime();
+                  consumerTimes[2] = AllocationProbe.threadAllocatedBytes();
+               }
+               WaitStrategy.poll(q, consumerWait, producerWait);
+               final long latency = System.nanoTime() - sent[i];
+               if (i >= numWarmup)
+                  histogram.recordValue(Math.min(latency, highestTrackableLatency));
+            }
+            consumerTimes[0] = threads.getCurrentThreadCpuTime() - consumerTimes[0];
+            probe.addConsumerBytes(AllocationProbe.threadAllocatedBytes() - consumerTimes[2]);
+            consumerTimes[1] = System.nanoTime();
+            finished.countDown();
+         }
+      }, "consumer-" + type);
+
+      consumer.start();
+      started.await();
+
+      final long interval = messagesPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / messagesPerSecond : 0;
+      final long start = System.nanoTime();
+      long measureStart = start;
+      long producerCpu = 0;
+      long producerAllocated = 0;
+      for (int i = 0; i < total; i++)
+      {
+         if (i == numWarmup)
+         {
+            measureStart = System.nanoTime();
+            producerCpu = threads.getCurrentThreadCpuTime();
+            producerAllocated = AllocationProbe.threadAllocatedBytes();
+            probe.begin();
+         }
+         
+         if (interval > 0)
+         {
+            final long scheduled = start + (i * interval);
+            while (System.nanoTime() < scheduled);
+            sent[i] = correctForCoordinatedOmission ? scheduled : System.nanoTime();
+         }
+         else
+            sent[i] = System.nanoTime();
+
+         WaitStrategy.offer(q, MESSAGE, producerWait, consumerWait);
+      }
+      producerCpu = threads.getCurrentThreadCpuTime() - producerCpu;
+      probe.addProducerBytes(AllocationProbe.threadAllocatedBytes() - producerAllocated);
+
+      finished.await();
+      probe.end();
+      return new Result(histogram, consumerTimes[1] - measureStart, producerCpu, consumerTimes[0], probe, pinned[0]);
+   }
+
+   public static String format(String prefix, Histogram histogram)
+   {
+      StringBuilder sb = new StringBuilder(prefix);
+      for (double p : percentiles)
+         sb.append(String.format(" p%s=%,dns", p, histogram.getValueAtPercentile(p)));
+      sb.append(String.format(" max=%,dns", histogram.getMaxValue()));
+      return sb.toString();
+   }
+
+   public static void main(String[] args) throws Throwable
+   {
+      int capacity = MechanicalSympathy.queueSize;
+      int numMessages = 1024 * 1024 * 4;
+      int numWarmup = 1024 * 1024;
+      boolean correct = true;
+      int runs = 1;
+      String csv = null;
+      List<Long> rates = new ArrayList<Long>();
+      List<QueueType> types = new ArrayList<QueueType>();
+
+      for (int i = 0; i < args.length; i++)
+      {
+         final String arg = args[i];
+         if ("-rate".equals(arg))
+         {
+            for (String rate : args[++i].split(","))
+               rates.add(Long.parseLong(rate));
+         }
+         else if ("-capacity".equals(arg))
+            capacity = Integer.parseInt(args[++i]);
+         else if ("-messages".equals(arg))
+            numMessages = Integer.parseInt(args[++i]);
+         else if ("-warmup".equals(arg))
+            numWarmup = Integer.parseInt(args[++i]);
+         else if ("-uncorrected".equals(arg))
+            correct = false;
+         else if ("-runs".equals(arg))
+            runs = Integer.parseInt(args[++i]);
+         else if ("-csv".equals(arg))
+            csv = args[++i];
+         else if (arg.startsWith("-"))
+         {
+            usage();
+            return;
+         }
+         else
+            types.add(QueueType.valueOf(arg));
+      }
+
+      if (rates.isEmpty())
+         rates.add(0L);
+      if (types.isEmpty())
+         for (QueueType type : QueueType.values())
+            types.add(type);
+
+      PrintWriter out = null;
+      if (csv != null)
+      {
+         out = new PrintWriter(new FileWriter(csv));
+         StringBuilder header = new StringBuilder("queue,capacity,rate,run,ops_per_sec");
+         for (double p : percentiles)
+            header.append(",").append(columnName(p));
+         out.println(header.append(",max_ns"));
+      }
+
+      LatencyBenchmark o = new LatencyBenchmark(capacity, numMessages, numWarmup, correct);
+      for (long rate : rates)
+      {
+         for (QueueType type : types)
+         {
+            for (int run = 0; run < runs; run++)
+            {
+               final String prefix = rate > 0 ? String.format("%s @ %,d msgs/sec", type, rate) : type + " @ max rate";
+               final Result result = o.measure(type, rate, new WaitStrategy.Yield(), new WaitStrategy.Yield());
+               System.out.println(format(prefix, result.histogram) + " " + result.allocation.format(numMessages));
+               if (out != null)
+               {
+                  StringBuilder line = new StringBuilder();
+                  line.append(type).append(',').append(capacity).append(',').append(rate).append(',').append(run)
+                        .append(',').append(result.opsPerSecond());
+                  for (double p : percentiles)
+                     line.append(',').append(result.histogram.getValueAtPercentile(p));
+                  out.println(line.append(',').append(result.histogram.getMaxValue()));
+                  out.flush();
+               }
+            }
+         }
+      }
+
+      if (out != null)
+         out.close();
+   }
+
+   public static String columnName(double percentile)
+   {
+      return "p" + (percentile == Math.rint(percentile) ? Long.toString((long)percentile) : Double.toString(percentile)) + "_ns";
+   }
+
+   public static void usage()
+   {
+      System.out.println("usage: java " + LatencyBenchmark.class.getName() + " [options] [queue type ...]");
+      System.out.println("        -rate n[,n...]    target producer rate(s) in msgs/sec. 0 (default) is unthrottled.");
+      System.out.println("        -capacity n       queue capacity (default " + MechanicalSympathy.queueSize + ")");
+      System.out.println("        -messages n       number of measured messages per run");
+      System.out.println("        -warmup n         number of messages sent before measuring");
+      System.out.println("        -uncorrected      stamp messages with the actual send time rather than the scheduled one");
+      System.out.println("        -runs n           runs of each queue type and rate (default 1)");
+      System.out.println("        -csv file         also write one line per run as CSV");
+      System.out.print("      queue types:");
+      for (QueueType type : QueueType.values())
+         System.out.print(" " + type);
+      System.out.println();
+   }
+}
@@ -0,0 +1,1705 @@
+package net.dempsy.mechanicalsympathy;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.management.ManagementFactory;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class MechanicalSympathy
+{
+   public final static int numIterations = 1024 * 1024 * 8;
+   public final static int queueSize = 1024 * 8;
+   public final static int numRuns = 10;
+   
+   public final static Long[] values = new Long[numIterations];
+   public final static long[] primitiveValues = new long[numIterations];
+   public final static long valuesSum;
+   static
+   {
+      long sum = 0;
+      Random r = new Random();
+      for (int i = 0; i < numIterations; i++)
+      {
+         final long cur = r.nextLong();
+         sum += cur;
+         values[i] = cur;
+         primitiveValues[i] = cur;
+      }
+      valuesSum = sum;
+   }
+   
+   public static interface SimpleQueue<E>
+   {
+      public boolean offer(E o);
+      public E poll();
+   }
+   
+   /**
+    * Batch operations publish the head or tail once for the whole run of slots rather than
+    * once per element. Each returns the number of elements actually transferred.
+    */
+   public static interface BatchQueue<E> extends SimpleQueue<E>
+   {
+      public int drain(Consumer<? super E> consumer, int limit);
+      public int fill(Supplier<? extends E> supplier, int limit);
+      public int offer(E[] src, int off, int len);
+   }
+   
+   public static final class SimpleQueueAdapter<E> implements SimpleQueue<E>
+   {
+      private final Queue<E> queue;
+      
+      public SimpleQueueAdapter(Queue<E> queue)
+      {
+         this.queue = queue;
+      }
+      
+      public final boolean offer(E o) { return queue.offer(o); }
+      public final E poll() { return queue.poll(); }
+   }
+   
+   private void assertEquals(Object o1, Object o2)
+   {
+      if (!o1.equals(o2))
+         System.out.println("ERROR: " + o2 + " didn't match the expected value " + o1 );
+   }
+
+   //=====================================================================================
+   
+   private long run(final Queue<Long> q, String prefix) throws Throwable
+   {
+      final CountDownLatch latch = new CountDownLatch(1);
+      final AtomicLong valueSum = new AtomicLong();
+      final AllocationProbe probe = new AllocationProbe();
+
+      Thread thread = new Thread(new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            final long allocated = AllocationProbe.threadAllocatedBytes();
+            long sum = 0;
+            Long cur;
+            for (int i = 0; i < numIterations; i++)
+            {
+               while ((cur = q.poll()) == null) Thread.yield();
+               sum += cur;
+            }
+            
+            probe.addConsumerBytes(AllocationProbe.threadAllocatedBytes() - allocated);
+            valueSum.set(sum);
+            latch.countDown();
+         }
+      });
+      
+      thread.start();
+      Thread.sleep(100);
+      
+      probe.begin();
+      long startTime = System.currentTimeMillis();
+      
+      final long allocated = AllocationProbe.threadAllocatedBytes();
+      for (int i = 0;i < numIterations; i++)
+         while (!q.offer(values[i])) Thread.yield();
+      probe.addProducerBytes(AllocationProbe.threadAllocatedBytes() - allocated);
+      
+      latch.await();
+      long endTime = System.currentTimeMillis();
+      probe.end();
+      
+      assertEquals(valuesSum,valueSum.get());
+      final long ret = (long)((double)((long)numIterations * 1000L)/(double)(endTime - startTime));
+      System.out.format("%s %,d ops/sec %s%n", prefix, ret, probe.format(numIterations));
+      return ret;
+   }
+   
+   private long run(final SimpleQueue<Long> q, String prefix) throws Throwable
+   {
+      final CountDownLatch latch = new CountDownLatch(1);
+      final AtomicLong valueSum = new AtomicLong();
+      final AllocationProbe probe = new AllocationProbe();
+
+      Thread thread = new Thread(new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            final long allocated = AllocationProbe.threadAllocatedBytes();
+            long sum = 0;
+            Long cur;
+            for (int i = 0; i < numIterations; i++)
+            {
+               while ((cur = q.poll()) == null) Thread.yield();
+               sum += cur;
+            }
+            
+            probe.addConsumerBytes(AllocationProbe.threadAllocatedBytes() - allocated);
+            valueSum.set(sum);
+            latch.countDown();
+         }
+      });
+      
+      thread.start();
+      Thread.sleep(100);
+      
+      probe.begin();
+      long startTime = System.currentTimeMillis();
+      
+      final long allocated = AllocationProbe.threadAllocatedBytes();
+      for (int i = 0;i < numIterations; i++)
+         while (!q.offer(values[i])) Thread.yield();
+      probe.addProducerBytes(AllocationProbe.threadAllocatedBytes() - allocated);
+      
+      latch.await();
+      long endTime = System.currentTimeMillis();
+      probe.end();
+      
+      assertEquals(valuesSum,valueSum.get());
+      final long ret = (long)((double)((long)numIterations * 1000L)/(double)(endTime - startTime));
+      System.out.format("%s %,d ops/sec %s%n", prefix, ret, probe.format(numIterations));
+      return ret;
+   }
+   
+   private long run(final OneToOneLongQueue2Padded q, String prefix) throws Throwable
+   {
+      final CountDownLatch latch = new CountDownLatch(1);
+      final AtomicLong valueSum = new AtomicLong();
+      final AllocationProbe probe = new AllocationProbe();
+
+      Thread thread = new Thread(new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            final long allocated = AllocationProbe.threadAllocatedBytes();
+            long sum = 0;
+            long cur;
+            for (int i = 0; i < numIterations; i++)
+            {
+               while ((cur = q.poll()) == OneToOneLongQueue2Padded.EMPTY) Thread.yield();
+               sum += cur;
+            }
+            
+            probe.addConsumerBytes(AllocationProbe.threadAllocatedBytes() - allocated);
+            valueSum.set(sum);
+            latch.countDown();
+         }
+      });
+      
+      thread.start();
+      Thread.sleep(100);
+      
+      probe.begin();
+      long startTime = System.currentTimeMillis();
+      
+      final long allocated = AllocationProbe.threadAllocatedBytes();
+      for (int i = 0;i < numIterations; i++)
+         while (!q.offer(primitiveValues[i])) Thread.yield();
+      probe.addProducerBytes(AllocationProbe.threadAllocatedBytes() - allocated);
+      
+      latch.await();
+      long endTime = System.currentTimeMillis();
+      probe.end();
+      
+      assertEquals(valuesSum,valueSum.get());
+      final long ret = (long)((double)((long)numIterations * 1000L)/(double)(endTime - startTime));
+      System.out.format("%s %,d ops/sec %s%n", prefix, ret, probe.format(numIterations));
+      return ret;
+   }
+   
+   private long runManyToMany(final SimpleQueue<Long> q, final int numProducers, final int numConsumers, String prefix) throws Throwable
+   {
+      final CountDownLatch latch = new CountDownLatch(numConsumers);
+      final AtomicLong valueSum = new AtomicLong();
+      final AllocationProbe probe = new AllocationProbe();
+
+      // each consumer takes a fixed share of the messages so they all know when to stop
+      final Thread[] consumers = new Thread[numConsumers];
+      for (int c = 0; c < numConsumers; c++)
+      {
+         final int count = (numIterations / numConsumers) + (c < (numIterations % numConsumers) ? 1 : 0);
+         consumers[c] = new Thread(new Runnable()
+         {
+            @Override
+            public void run()
+            {
+               final long allocated = AllocationProbe.threadAllocatedBytes();
+               long sum = 0;
+               Long cur;
+               for (int i = 0; i < count; i++)
+               {
+                  while ((cur = q.poll()) == null) Thread.yield();
+                  sum += cur;
+               }
+               
+               probe.addConsumerBytes(AllocationProbe.threadAllocatedBytes() - allocated);
+               valueSum.addAndGet(sum);
+               latch.countDown();
+            }
+         });
+      }
+      
+      // each producer sends every numProducers'th value so between them they send them all
+      final CountDownLatch startLatch = new CountDownLatch(1);
+      final Thread[] producers = new Thread[numProducers];
+      for (int p = 0; p < numProducers; p++)
+      {
+         final int first = p;
+         producers[p] = new Thread(new Runnable()
+         {
+            @Override
+            public void run()
+            {
+               try { startLatch.await(); } catch (InterruptedException e) { return; }
+               final long allocated = AllocationProbe.threadAllocatedBytes();
+               for (int i = first; i < numIterations; i += numProducers)
+                  while (!q.offer(values[i])) Thread.yield();
+               probe.addProducerBytes(AllocationProbe.threadAllocatedBytes() - allocated);
+            }
+         });
+         producers[p].start();
+      }
+      
+      for (Thread thread : consumers)
+         thread.start();
+      Thread.sleep(100);
+      
+      probe.begin();
+      long startTime = System.currentTimeMillis();
+      
+      startLatch.countDown();
+      
+      latch.await();
+      long endTime = System.currentTimeMillis();
+      probe.end();
+      
+      for (Thread thread : producers)
+         thread.join();
+      
+      assertEquals(valuesSum,valueSum.get());
+      final long ret = (long)((double)((long)numIterations * 1000L)/(double)(endTime - startTime));
+      System.out.format("%s %dP x %dC %,d ops/sec %s%n", prefix, numProducers, numConsumers, ret, probe.format(numIterations));
+      return ret;
+   }
+   
+   public void runTests(final Queue<Long> q, String prefix) throws Throwable
+   {
+      final long[] runs = new long[numRuns];
+      long average = 0;
+      for (int i = 0; i < numRuns; i++)
+         average += runs[i] = run(q, prefix);
+      System.out.format("%s Average: %,d ops/sec%n", prefix, (average / (long)numRuns));
+      System.out.format("%s %s%n", prefix, Statistics.of(runs));
+   }
+   
+   public void runTests(final SimpleQueue<Long> q, String prefix) throws Throwable
+   {
+      final long[] runs = new long[numRuns];
+      long average = 0;
+      for (int i = 0; i < numRuns; i++)
+         average += runs[i] = run(q, prefix);
+      System.out.format("%s Average: %,d ops/sec%n", prefix, (average / (long)numRuns));
+      System.out.format("%s %s%n", prefix, Statistics.of(runs));
+   }
+   
+   public void runTests(final OneToOneLongQueue2Padded q, String prefix) throws Throwable
+   {
+      final long[] runs = new long[numRuns];
+      long average = 0;
+      for (int i = 0; i < numRuns; i++)
+         average += runs[i] = run(q, prefix);
+      System.out.format("%s Average: %,d ops/sec%n", prefix, (average / (long)numRuns));
+      System.out.format("%s %s%n", prefix, Statistics.of(runs));
+   }
+   
+   public void runTests(final SimpleQueue<Long> q, final int numProducers, final int numConsumers, String prefix) throws Throwable
+   {
+      final long[] runs = new long[numRuns];
+      long average = 0;
+      for (int i = 0; i < numRuns; i++)
+         average += runs[i] = runManyToMany(q, numProducers, numConsumers, prefix);
+      System.out.format("%s %dP x %dC Average: %,d ops/sec%n", prefix, numProducers, numConsumers, (average / (long)numRuns));
+      System.out.format("%s %dP x %dC %s%n", prefix, numProducers, numConsumers, Statistics.of(runs));
+   }
+   
+   public void runMatrix(final SimpleQueue<Long> q, String prefix) throws Throwable
+   {
+      for (int numProducers = 1; numProducers <= maxThreads(); numProducers++)
+         for (int numConsumers = 1; numConsumers <= maxThreads(); numConsumers++)
+            runTests(q, numProducers, numConsumers, prefix);
+   }
+   
+   public static int maxThreads()
+   {
+      return Math.max(2, Runtime.getRuntime().availableProcessors() - 1);
+   }
+   
+   //=====================================================================================
+   
+   public void testBlockingQueue() throws Throwable
+   {
+      runTests(new ArrayBlockingQueue<Long>(queueSize), "BlockingQueue");
+   }
+   
+   //=====================================================================================
+   
+   public static final class OneToOneQueueBlocking<E> implements SimpleQueue<E>
+   {
+      private final E[] buffer;
+      
+      private long tail = 0;
+      private long head = 0;
+      
+      @SuppressWarnings("unchecked")
+      public OneToOneQueueBlocking(int size)
+      {
+         buffer = (E[])(new Object[size]);
+      }
+      
+      public final synchronized boolean offer(E o)
+      {
+         final long wrapPoint = tail - buffer.length;
+         if (head <= wrapPoint)
+            return false;
+         buffer[(int)(tail % buffer.length)] = o;
+         tail++;
+         return true;
+      }
+      
+      public final synchronized E poll()
+      {
+         if (head >= tail)
+            return null;
+         final int index = (int)(head % buffer.length);
+         head++;
+         return buffer[index];
+      }
+   }
+   
+   public void testSynchronized() throws Throwable
+   {
+      runTests(new OneToOneQueueBlocking<Long>(queueSize), "Synchronized");
+   }
+   
+   //=====================================================================================
+   
+   public void testConcurrentQueue() throws Throwable
+   {
+      runTests(new ConcurrentLinkedQueue<Long>(), "ConcurrentQueue");
+   }
+   
+   //=====================================================================================
+   
+   public static class OneToOneQueueVolatile<E> implements SimpleQueue<E>
+   {
+      private final E[] buffer;
+      
+      private volatile long tail = 0;
+      private volatile long head = 0;
+      
+      @SuppressWarnings("unchecked")
+      public OneToOneQueueVolatile(int size)
+      {
+         buffer = (E[])(new Object[size]);
+      }
+      
+      public final boolean offer(final E o)
+      {
+         final long curTail = tail; // read volatile.
+         final long wrapPoint = curTail - buffer.length;
+         if (head <= wrapPoint) // read volatile
+            return false;
+         
+         buffer[(int)(curTail % buffer.length)] = o;
+         
+         tail = curTail + 1; // write volatile - happens before semantics
+         
+         return true;
+      }
+      
+      public final E poll()
+      {
+         final long curHead = head; // volatile read
+         
+         if (curHead >= tail) // volatile read
+            return null;
+         
+         final int index = (int)(curHead % buffer.length);
+         final E ret = buffer[index];
+         
+         head = curHead + 1; // write volatile
+         
+         return ret;
+      }
+   }
+
+   public void testVolatile() throws Throwable
+   {
+      runTests(new OneToOneQueueVolatile<Long>(queueSize),"Volatile");
+   }
+   
+   //=====================================================================================
+   
+   public static final class OneToOneQueueSoftMB<E> implements SimpleQueue<E>
+   {
+      private final E[] buffer;
+      
+      private final AtomicLong tail = new AtomicLong(0);
+      private final AtomicLong head = new AtomicLong(0);
+      
+      @SuppressWarnings("unchecked")
+      public OneToOneQueueSoftMB(int size)
+      {
+         buffer = (E[])(new Object[size]);
+      }
+      
+      public final boolean offer(final E o)
+      {
+         final long curTail = tail.get();
+         final long wrapPoint = curTail - buffer.length;
+         if (head.get() <= wrapPoint)
+            return false;
+         
+         buffer[(int)(curTail % buffer.length)] = o;
+         
+         tail.lazySet(curTail + 1); // StoreStore memory barrier
+         
+         return true;
+      }
+      
+      public final E poll()
+      {
+         final long curHead = head.get();
+         
+         if (curHead >= tail.get())
+            return null;
+         
+         final int index = (int)(curHead % buffer.length);
+         final E ret = buffer[index];
+         
+         head.lazySet(curHead + 1); // StoreStore memory barrier
+         
+         return ret;
+      }
+   }
+
+   public void testSoftMB() throws Throwable
+   {
+      runTests(new OneToOneQueueSoftMB<Long>(queueSize),"SoftMB");
+   }
+   
+   //=====================================================================================
+   
+   public static final class OneToOneQueueSoftMBMod<E> implements SimpleQueue<E>
+   {
+      private final E[] buffer;
+      
+      private final AtomicLong tail = new AtomicLong(0);
+      private final AtomicLong head = new AtomicLong(0);
+      
+      private final int bufferSize;
+      private final int indexMask;
+
+      
+      @SuppressWarnings("unchecked")
+      public OneToOneQueueSoftMBMod(int size)
+      {
+         if (Integer.bitCount(size) != 1)
+            throw new IllegalArgumentException("bufferSize must be a power of 2");
+         
+         this.bufferSize = size;
+         this.indexMask = size - 1;
+
+         buffer = (E[])(new Object[size]);
+      }
+      
+      public final boolean offer(final E o)
+      {
+         final long curTail = tail.get();
+         final long wrapPoint = curTail - bufferSize;
+         if (head.get() <= wrapPoint)
+            return false;
+         
+         buffer[(int)(curTail & indexMask)] = o;
+         
+         tail.lazySet(curTail + 1); // StoreStore memory barrier
+         
+         return true;
+      }
+      
+      public final E poll()
+      {
+         final long curHead = head.get();
+         
+         if (curHead >= tail.get())
+            return null;
+         
+         final int index = (int)(curHead & indexMask);
+         final E ret = buffer[index];
+         
+         head.lazySet(curHead + 1); // StoreStore memory barrier
+         
+         return ret;
+      }
+   }
+
+   public void testSoftMBMod() throws Throwable
+   {
+      runTests(new OneToOneQueueSoftMBMod<Long>(queueSize),"SoftMBMod");
+   }
+
+   //=====================================================================================
+   
+   public static final class OneToOneQueueCachedHeadTail<E> implements SimpleQueue<E>
+   {
+      private final E[] buffer;
+      
+      private final AtomicLong tail = new PaddedAtomicLong(0);
+      private final AtomicLong head = new PaddedAtomicLong(0);
+      
+      private long tailCache = 0; // used in poll
+      private long headCache = 0; // used in offer
+
+      private final int bufferSize;
+      private final int indexMask;
+      
+      @SuppressWarnings("unchecked")
+      public OneToOneQueueCachedHeadTail(int size)
+      {
+         if (Integer.bitCount(size) != 1)
+            throw new IllegalArgumentException("bufferSize must be a power of 2");
+         
+         this.bufferSize = size;
+         this.indexMask = size - 1;
+
+         buffer = (E[])(new Object[size]);
+      }
+      
+      public final boolean offer(final E o)
+      {
+         final long curTail = tail.get();
+         final long wrapPoint = curTail - bufferSize;
+         if (headCache <= wrapPoint)
+         {
+            headCache = head.get();
+            if (headCache <= wrapPoint)
+               return false;
+         }
+         
+         buffer[(int)(curTail & indexMask)] = o;
+         
+         tail.lazySet(curTail + 1); // StoreStore memory barrier
+         
+         return true;
+      }
+      
+      public final E poll()
+      {
+         final long curHead = head.get();
+         
+         if (curHead >= tailCache)
+         {
+            tailCache = tail.get();
+            if (curHead >= tailCache)
+               return null;
+         }
+         
+         final int index = (int)(curHead & indexMask);
+         final E ret = buffer[index];
+         
+         head.lazySet(curHead + 1); // StoreStore memory barrier
+         
+         return ret;
+      }
+   }
+
+   public void testCachedHeadTail() throws Throwable
+   {
+      runTests(new OneToOneQueueCachedHeadTail<Long>(queueSize),"Cached Head/Tail");
+   }
+
+   //=====================================================================================
+   
+   public static final class OneToOneQueue2CachedHeadTail<E> implements SimpleQueue<E>
+   {
+      private final E[] buffer;
+      
+      private final AtomicLong tail = new PaddedAtomicLong(0);
+      private final AtomicLong head = new PaddedAtomicLong(0);
+      
+      private long tailCache = 0; // used in poll
+      private long headCache = 0; // used in offer
+      
+      private long offerSideTailCache = 0;
+      private long pollSideHeadCache = 0;
+
+      private final int bufferSize;
+      private final int indexMask;
+      
+      @SuppressWarnings("unchecked")
+      public OneToOneQueue2CachedHeadTail(int size)
+      {
+         if (Integer.bitCount(size) != 1)
+            throw new IllegalArgumentException("bufferSize must be a power of 2");
+         
+         this.bufferSize = size;
+         this.indexMask = size - 1;
+
+         buffer = (E[])(new Object[size]);
+      }
+      
+      public final boolean offer(final E o)
+      {
+         final long curTail = offerSideTailCache;
+         final long wrapPoint = curTail - bufferSize;
+         
+         if (headCache <= wrapPoint)
+         {
+            headCache = head.get();
+            if (headCache <= wrapPoint)
+               return false;
+         }
+         
+         buffer[(int)(curTail & indexMask)] = o;
+         
+         offerSideTailCache = curTail + 1;
+         tail.lazySet(offerSideTailCache); // StoreStore memory barrier
+         
+         return true;
+      }
+      
+      public final E poll()
+      {
+         final long curHead = pollSideHeadCache;
+         
+         if (curHead >= tailCache)
+         {
+            tailCache = tail.get();
+            if (curHead >= tailCache)
+               return null;
+         }
+         
+         final int index = (int)(curHead & indexMask);
+         final E ret = buffer[index];
+         
+         pollSideHeadCache = curHead + 1;
+         head.lazySet(pollSideHeadCache); // StoreStore memory barrier
+         
+         return ret;
+      }
+   }
+
+   public void test2CachedHeadTail() throws Throwable
+   {
+      runTests(new OneToOneQueue2CachedHeadTail<Long>(queueSize),"2Cached Head/Tail");
+   }
+
+   //=====================================================================================
+
+   public static final class PaddedAtomicLong extends AtomicLong
+   {
+      private static final long serialVersionUID = 1L;
+      
+      public volatile long p1,p2,p3,p4,p5,p6 = 7L;
+
+      public long sumPaddingToPreventOptimisation()
+      {
+          return p1 + p2 + p3 + p4 + p5 + p6;
+      }
+      
+      public PaddedAtomicLong(long v) { super(v); }
+   }
+   
+   public static final class PaddedLong
+   {
+      public long value = 0L, p1, p2, p3, p4, p5, p6 = 7L;
+      
+      public long sumPaddingToPreventOptimisation()
+      {
+          return value + p1 + p2 + p3 + p4 + p5 + p6;
+      }
+   }
+   
+   public static final class OneToOneQueuePadded<E> implements SimpleQueue<E>
+   {
+      private final E[] buffer;
+      
+      public volatile long value = 0L, p1, p2, p3, p4, p5, p6 = 7L;
+      
+      public long sumPaddingToPreventOptimisation()
+      {
+          return value + p1 + p2 + p3 + p4 + p5 + p6;
+      }
+
+      private final PaddedAtomicLong tail = new PaddedAtomicLong(0);
+      private final PaddedAtomicLong head = new PaddedAtomicLong(0);
+      
+      private final PaddedLong tailCache = new PaddedLong(); // used in poll
+      private final PaddedLong headCache = new PaddedLong(); // used in offer
+
+      private final int bufferSize;
+      private final int indexMask;
+      
+      @SuppressWarnings("unchecked")
+      public OneToOneQueuePadded(int size)
+      {
+         if (Integer.bitCount(size) != 1)
+            throw new IllegalArgumentException("bufferSize must be a power of 2");
+         
+         this.bufferSize = size;
+         this.indexMask = size - 1;
+
+         buffer = (E[])(new Object[size]);
+      }
+      
+      public final boolean offer(final E o)
+      {
+         final long curTail = tail.get();
+         final long wrapPoint = curTail - bufferSize;
+         if (headCache.value <= wrapPoint)
+         {
+            headCache.value = head.get();
+            if (headCache.value <= wrapPoint)
+               return false;
+         }
+         
+         buffer[(int)(curTail & indexMask)] = o;
+         
+         tail.lazySet(curTail + 1); // StoreStore memory barrier
+         
+         return true;
+      }
+      
+      public final E poll()
+      {
+         final long curHead = head.get();
+         
+         if (curHead >= tailCache.value)
+         {
+            tailCache.value = tail.get();
+            if (curHead >= tailCache.value)
+               return null;
+         }
+         
+         final int index = (int)(curHead & indexMask);
+         final E ret = buffer[index];
+         
+         head.lazySet(curHead + 1); // StoreStore memory barrier
+         
+         return ret;
+      }
+   }
+
+   public void testPadded() throws Throwable
+   {
+      runTests(new OneToOneQueuePadded<Long>(queueSize),"Padded");
+   }
+
+   //=====================================================================================
+   
+   public static final class OneToOneQueue2Padded<E> implements BatchQueue<E>
+   {
+      private final E[] buffer;
+      
+      private final PaddedAtomicLong tail = new PaddedAtomicLong(0);
+      private final PaddedAtomicLong head = new PaddedAtomicLong(0);
+      
+      private final PaddedLong tailCache = new PaddedLong(); // used in poll
+      private final PaddedLong headCache = new PaddedLong(); // used in offer
+      
+      private final PaddedLong offerSideTailCache = new PaddedLong();
+      private final PaddedLong pollSideHeadCache = new PaddedLong();
+
+      private final int bufferSize;
+      private final int indexMask;
+      
+      @SuppressWarnings("unchecked")
+      public OneToOneQueue2Padded(int size)
+      {
+         if (Integer.bitCount(size) != 1)
+            throw new IllegalArgumentException("bufferSize must be a power of 2");
+         
+         this.bufferSize = size;
+         this.indexMask = size - 1;
+
+         buffer = (E[])(new Object[size]);
+      }
+      
+      public final boolean offer(final E o)
+      {
+         final long curTail = offerSideTailCache.value;
+         final long wrapPoint = curTail - bufferSize;
+         
+         if (headCache.value <= wrapPoint)
+         {
+            headCache.value = head.get();
+            if (headCache.value <= wrapPoint)
+               return false;
+         }
+         
+         buffer[(int)(curTail & indexMask)] = o;
+         
+         final long nextTail = curTail + 1;
+         offerSideTailCache.value = nextTail;
+         tail.lazySet(nextTail); // StoreStore memory barrier
+         
+         return true;
+      }
+      
+      public final E poll()
+      {
+         final long curHead = pollSideHeadCache.value;
+         
+         if (curHead >= tailCache.value)
+         {
+            tailCache.value = tail.get();
+            if (curHead >= tailCache.value)
+               return null;
+         }
+         
+         final int index = (int)(curHead & indexMask);
+         final E ret = buffer[index];
+
+         final long nextHead = curHead + 1;
+         pollSideHeadCache.value = nextHead;
+         head.lazySet(nextHead); // StoreStore memory barrier
+         
+         return ret;
+      }
+      
+      public final int drain(final Consumer<? super E> consumer, final int limit)
+      {
+         final long curHead = pollSideHeadCache.value;
+         
+         if (tailCache.value - curHead < limit)
+            tailCache.value = tail.get();
+         
+         final int count = (int)Math.min(tailCache.value - curHead, limit);
+         if (count <= 0)
+            return 0;
+         
+         int i = 0;
+         try
+         {
+            for (; i < count; i++)
+               consumer.accept(buffer[(int)((curHead + i) & indexMask)]);
+         }
+         finally
+         {
+            // publish what was taken even if the consumer threw, including the one it threw on
+            final long nextHead = curHead + (i < count ? i + 1 : count);
+            pollSideHeadCache.value = nextHead;
+            head.lazySet(nextHead); // StoreStore memory barrier
+         }
+         
+         return count;
+      }
+      
+      public final int fill(final Supplier<? extends E> supplier, final int limit)
+      {
+         final long curTail = offerSideTailCache.value;
+         
+         if (headCache.value + bufferSize - curTail < limit)
+            headCache.value = head.get();
+         
+         final int count = (int)Math.min(headCache.value + bufferSize - curTail, limit);
+         if (count <= 0)
+            return 0;
+         
+         for (int i = 0; i < count; i++)
+            buffer[(int)((curTail + i) & indexMask)] = supplier.get();
+         
+         final long nextTail = curTail + count;
+         offerSideTailCache.value = nextTail;
+         tail.lazySet(nextTail); // StoreStore memory barrier
+         
+         return count;
+      }
+      
+      public final int offer(final E[] src, final int off, final int len)
+      {
+         final long curTail = offerSideTailCache.value;
+         
+         if (headCache.value + bufferSize - curTail < len)
+            headCache.value = head.get();
+         
+         final int count = (int)Math.min(headCache.value + bufferSize - curTail, len);
+         if (count <= 0)
+            return 0;
+         
+         // at most two copies, one up to the end of the buffer and one for the wrap
+         final int index = (int)(curTail & indexMask);
+         final int firstCount = Math.min(count, bufferSize - index);
+         System.arraycopy(src, off, buffer, index, firstCount);
+         System.arraycopy(src, off + firstCount, buffer, 0, count - firstCount);
+         
+         final long nextTail = curTail + count;
+         offerSideTailCache.value = nextTail;
+         tail.lazySet(nextTail); // StoreStore memory barrier
+         
+         return count;
+      }
+   }
+
+   public void test2Padded() throws Throwable
+   {
+      runTests(new OneToOneQueue2Padded<Long>(queueSize),"Padded 2Cached Head/Tail");
+   }
+
+   //=====================================================================================
+   
+   /**
+    * Same as {@link OneToOneQueue2Padded} but backed by a long[] so there's no boxing and
+    * no pointer chase from the slot to a Long somewhere else on the heap. {@link #EMPTY} is
+    * returned from {@link #poll()} when there's nothing to take so it can't be sent through
+    * the queue. Use {@link #poll(LongConsumer)} if every long value needs to be passable.
+    */
+   public static final class OneToOneLongQueue2Padded
+   {
+      public static final long EMPTY = Long.MIN_VALUE;
+      
+      private final long[] buffer;
+      
+      private final PaddedAtomicLong tail = new PaddedAtomicLong(0);
+      private final PaddedAtomicLong head = new PaddedAtomicLong(0);
+      
+      private final PaddedLong tailCache = new PaddedLong(); // used in poll
+      private final PaddedLong headCache = new PaddedLong(); // used in offer
+      
+      private final PaddedLong offerSideTailCache = new PaddedLong();
+      private final PaddedLong pollSideHeadCache = new PaddedLong();
+
+      private final int bufferSize;
+      private final int indexMask;
+      
+      public OneToOneLongQueue2Padded(int size)
+      {
+         if (Integer.bitCount(size) != 1)
+            throw new IllegalArgumentException("bufferSize must be a power of 2");
+         
+         this.bufferSize = size;
+         this.indexMask = size - 1;
+
+         buffer = new long[size];
+      }
+      
+      public final boolean offer(final long o)
+      {
+         final long curTail = offerSideTailCache.value;
+         final long wrapPoint = curTail - bufferSize;
+         
+         if (headCache.value <= wrapPoint)
+         {
+            headCache.value = head.get();
+            if (headCache.value <= wrapPoint)
+               return false;
+         }
+         
+         buffer[(int)(curTail & indexMask)] = o;
+         
+         final long nextTail = curTail + 1;
+         offerSideTailCache.value = nextTail;
+         tail.lazySet(nextTail); // StoreStore memory barrier
+         
+         return true;
+      }
+      
+      public final long poll()
+      {
+         final long curHead = pollSideHeadCache.value;
+         
+         if (curHead >= tailCache.value)
+         {
+            tailCache.value = tail.get();
+            if (curHead >= tailCache.value)
+               return EMPTY;
+         }
+         
+         final int index = (int)(curHead & indexMask);
+         final long ret = buffer[index];
+
+         final long nextHead = curHead + 1;
+         pollSideHeadCache.value = nextHead;
+         head.lazySet(nextHead); // StoreStore memory barrier
+         
+         return ret;
+      }
+      
+      public final boolean poll(final LongConsumer consumer)
+      {
+         final long curHead = pollSideHeadCache.value;
+         
+         if (curHead >= tailCache.value)
+         {
+            tailCache.value = tail.get();
+            if (curHead >= tailCache.value)
+               return false;
+         }
+         
+         final int index = (int)(curHead & indexMask);
+         final long ret = buffer[index];
+
+         final long nextHead = curHead + 1;
+         pollSideHeadCache.value = nextHead;
+         head.lazySet(nextHead); // StoreStore memory barrier
+         
+         consumer.accept(ret);
+         return true;
+      }
+      
+      public final int drain(final LongConsumer consumer, final int limit)
+      {
+         final long curHead = pollSideHeadCache.value;
+         
+         if (tailCache.value - curHead < limit)
+            tailCache.value = tail.get();
+         
+         final int count = (int)Math.min(tailCache.value - curHead, limit);
+         if (count <= 0)
+            return 0;
+         
+         int i = 0;
+         try
+         {
+            for (; i < count; i++)
+               consumer.accept(buffer[(int)((curHead + i) & indexMask)]);
+         }
+         finally
+         {
+            // publish what was taken even if the consumer threw, including the one it threw on
+            final long nextHead = curHead + (i < count ? i + 1 : count);
+            pollSideHeadCache.value = nextHead;
+            head.lazySet(nextHead); // StoreStore memory barrier
+         }
+         
+         return count;
+      }
+      
+      public final int fill(final LongSupplier supplier, final int limit)
+      {
+         final long curTail = offerSideTailCache.value;
+         
+         if (headCache.value + bufferSize - curTail < limit)
+            headCache.value = head.get();
+         
+         final int count = (int)Math.min(headCache.value + bufferSize - curTail, limit);
+         if (count <= 0)
+            return 0;
+         
+         for (int i = 0; i < count; i++)
+            buffer[(int)((curTail + i) & indexMask)] = supplier.getAsLong();
+         
+         final long nextTail = curTail + count;
+         offerSideTailCache.value = nextTail;
+         tail.lazySet(nextTail); // StoreStore memory barrier
+         
+         return count;
+      }
+      
+      public final int offer(final long[] src, final int off, final int len)
+      {
+         final long curTail = offerSideTailCache.value;
+         
+         if (headCache.value + bufferSize - curTail < len)
+            headCache.value = head.get();
+         
+         final int count = (int)Math.min(headCache.value + bufferSize - curTail, len);
+         if (count <= 0)
+            return 0;
+         
+         // at most two copies, one up to the end of the buffer and one for the wrap
+         final int index = (int)(curTail & indexMask);
+         final int firstCount = Math.min(count, bufferSize - index);
+         System.arraycopy(src, off, buffer, index, firstCount);
+         System.arraycopy(src, off + firstCount, buffer, 0, count - firstCount);
+         
+         final long nextTail = curTail + count;
+         offerSideTailCache.value = nextTail;
+         tail.lazySet(nextTail); // StoreStore memory barrier
+         
+         return count;
+      }
+   }
+
+   public void testLong2Padded() throws Throwable
+   {
+      runTests(new OneToOneLongQueue2Padded(queueSize),"Padded 2Cached Head/Tail long[]");
+   }
+
+   //=====================================================================================
+   
+   public static final class ManyToOneQueuePadded<E> implements SimpleQueue<E>
+   {
+      private final AtomicReferenceArray<E> buffer;
+      
+      private final PaddedAtomicLong tail = new PaddedAtomicLong(0);
+      private final PaddedAtomicLong head = new PaddedAtomicLong(0);
+      
+      // shared by all of the producers. It's only ever set from head so it can't get ahead of it.
+      private final PaddedAtomicLong headCache = new PaddedAtomicLong(0);
+      
+      private final PaddedLong pollSideHeadCache = new PaddedLong();
+
+      private final int bufferSize;
+      private final int indexMask;
+      
+      public ManyToOneQueuePadded(int size)
+      {
+         if (Integer.bitCount(size) != 1)
+            throw new IllegalArgumentException("bufferSize must be a power of 2");
+         
+         this.bufferSize = size;
+         this.indexMask = size - 1;
+
+         buffer = new AtomicReferenceArray<E>(size);
+      }
+      
+      public final boolean offer(final E o)
+      {
+         if (o == null)
+            throw new NullPointerException();
+         
+         long curTail;
+         do
+         {
+            curTail = tail.get();
+            final long wrapPoint = curTail - bufferSize;
+            if (headCache.get() <= wrapPoint)
+            {
+               final long curHead = head.get();
+               if (curHead <= wrapPoint)
+                  return false;
+               headCache.lazySet(curHead);
+            }
+         } while (!tail.compareAndSet(curTail, curTail + 1)); // claim the slot
+         
+         buffer.lazySet((int)(curTail & indexMask), o); // publish the slot - StoreStore memory barrier
+         
+         return true;
+      }
+      
+      public final E poll()
+      {
+         final long curHead = pollSideHeadCache.value;
+         
+         final int index = (int)(curHead & indexMask);
+         final E ret = buffer.get(index);
+         
+         // empty, or the producer that claimed this slot hasn't published it yet
+         if (ret == null)
+            return null;
+         
+         buffer.lazySet(index, null);
+         
+         final long nextHead = curHead + 1;
+         pollSideHeadCache.value = nextHead;
+         head.lazySet(nextHead); // StoreStore memory barrier
+         
+         return ret;
+      }
+      
+      /**
+       * Polls up to limit published elements into the consumer and publishes the head once
+       * for the lot. Stops early at a slot that's been claimed but not yet published.
+       */
+      public final int drain(final Consumer<? super E> consumer, final int limit)
+      {
+         final long curHead = pollSideHeadCache.value;
+         int count = 0;
+         try
+         {
+            E cur;
+            while (count < limit && (cur = buffer.get((int)((curHead + count) & indexMask))) != null)
+            {
+               buffer.lazySet((int)((curHead + count) & indexMask), null);
+               count++;
+               consumer.accept(cur);
+            }
+         }
+         finally
+         {
+            // publish what was taken even if the consumer threw
+            if (count > 0)
+            {
+               final long nextHead = curHead + count;
+               pollSideHeadCache.value = nextHead;
+               head.lazySet(nextHead); // StoreStore memory barrier
+            }
+         }
+         return count;
+      }
+   }
+
+   public void testManyToOne() throws Throwable
+   {
+      final ManyToOneQueuePadded<Long> q = new ManyToOneQueuePadded<Long>(queueSize);
+      for (int numProducers = 1; numProducers <= maxThreads(); numProducers++)
+         runTests(q, numProducers, 1, "Padded Many to One");
+   }
+
+   public void testBlockingQueueManyToOne() throws Throwable
+   {
+      final SimpleQueue<Long> q = new SimpleQueueAdapter<Long>(new ArrayBlockingQueue<Long>(queueSize));
+      for (int numProducers = 1; numProducers <= maxThreads(); numProducers++)
+         runTests(q, numProducers, 1, "BlockingQueue Many to One");
+   }
+
+   //=====================================================================================
+   
+   public static final class ManyToManyQueuePadded<E> implements SimpleQueue<E>
+   {
+      private final E[] buffer;
+      
+      // slot i is free for the producer at position p when its sequence is p, and is
+      // full for the consumer at position p when its sequence is p + 1.
+      private final AtomicLongArray sequences;
+      
+      private final PaddedAtomicLong tail = new PaddedAtomicLong(0);
+      private final PaddedAtomicLong head = new PaddedAtomicLong(0);
+
+      private final int bufferSize;
+      private final int indexMask;
+      
+      @SuppressWarnings("unchecked")
+      public ManyToManyQueuePadded(int size)
+      {
+         if (Integer.bitCount(size) != 1)
+            throw new IllegalArgumentException("bufferSize must be a power of 2");
+         
+         this.bufferSize = size;
+         this.indexMask = size - 1;
+
+         buffer = (E[])(new Object[size]);
+         sequences = new AtomicLongArray(size);
+         for (int i = 0; i < size; i++)
+            sequences.set(i, i);
+      }
+      
+      public final boolean offer(final E o)
+      {
+         long curTail;
+         int index;
+         while (true)
+         {
+            curTail = tail.get();
+            index = (int)(curTail & indexMask);
+            final long dif = sequences.get(index) - curTail;
+            if (dif == 0)
+            {
+               if (tail.compareAndSet(curTail, curTail + 1))
+                  break;
+            }
+            else if (dif < 0) // the consumer a lap behind hasn't freed it yet
+               return false;
+         }
+         
+         buffer[index] = o;
+         sequences.lazySet(index, curTail + 1); // StoreStore memory barrier
+         
+         return true;
+      }
+      
+      public final E poll()
+      {
+         long curHead;
+         int index;
+         while (true)
+         {
+            curHead = head.get();
+            index = (int)(curHead & indexMask);
+            final long dif = sequences.get(index) - (curHead + 1);
+            if (dif == 0)
+            {
+               if (head.compareAndSet(curHead, curHead + 1))
+                  break;
+            }
+            else if (dif < 0) // nothing published here yet
+               return null;
+         }
+         
+         final E ret = buffer[index];
+         buffer[index] = null;
+         sequences.lazySet(index, curHead + bufferSize); // StoreStore memory barrier
+         
+         return ret;
+      }
+   }
+
+   public void testManyToMany() throws Throwable
+   {
+      runMatrix(new ManyToManyQueuePadded<Long>(queueSize), "Padded Many to Many");
+   }
+
+   public void testBlockingQueueManyToMany() throws Throwable
+   {
+      runMatrix(new SimpleQueueAdapter<Long>(new ArrayBlockingQueue<Long>(queueSize)), "BlockingQueue Many to Many");
+   }
+
+   public void testConcurrentQueueManyToMany() throws Throwable
+   {
+      runMatrix(new SimpleQueueAdapter<Long>(new ConcurrentLinkedQueue<Long>()), "ConcurrentQueue Many to Many");
+   }
+
+   //=====================================================================================
+   
+   public void testSharedMemory() throws Throwable
+   {
+      // the consumer runs in a second JVM, see SharedMemoryLongQueue
+      SharedMemoryBenchmark.produce(SharedMemoryBenchmark.defaultFile(), queueSize);
+   }
+
+   //=====================================================================================
+   
+   // The VarHandle family keeps head and tail as plain fields and pads them with the class
+   // hierarchy (the JVM lays out superclass fields first) rather than with separate padded
+   // objects, so there's no extra indirection to reach them.
+   
+   abstract static class VarHandleQueuePad0
+   {
+      long p00, p01, p02, p03, p04, p05, p06, p07;
+      long p08, p09, p0a, p0b, p0c, p0d, p0e, p0f;
+   }
+   
+   abstract static class VarHandleQueueColdFields<E> extends VarHandleQueuePad0
+   {
+      final E[] buffer;
+      final int bufferSize;
+      final int indexMask;
+      
+      @SuppressWarnings("unchecked")
+      VarHandleQueueColdFields(int size)
+      {
+         if (Integer.bitCount(size) != 1)
+            throw new IllegalArgumentException("bufferSize must be a power of 2");
+         
+         this.bufferSize = size;
+         this.indexMask = size - 1;
+
+         buffer = (E[])(new Object[size]);
+      }
+   }
+   
+   abstract static class VarHandleQueuePad1<E> extends VarHandleQueueColdFields<E>
+   {
+      long p10, p11, p12, p13, p14, p15, p16, p17;
+      long p18, p19, p1a, p1b, p1c, p1d, p1e, p1f;
+      
+      VarHandleQueuePad1(int size) { super(size); }
+   }
+   
+   abstract static class VarHandleQueueTailFields<E> extends VarHandleQueuePad1<E>
+   {
+      long tail = 0;
+      long headCache = 0; // used in offer
+      
+      VarHandleQueueTailFields(int size) { super(size); }
+   }
+   
+   abstract static class VarHandleQueuePad2<E> extends VarHandleQueueTailFields<E>
+   {
+      long p20, p21, p22, p23, p24, p25, p26, p27;
+      long p28, p29, p2a, p2b, p2c, p2d, p2e, p2f;
+      
+      VarHandleQueuePad2(int size) { super(size); }
+   }
+   
+   abstract static class VarHandleQueueHeadFields<E> extends VarHandleQueuePad2<E>
+   {
+      long head = 0;
+      long tailCache = 0; // used in poll
+      
+      VarHandleQueueHeadFields(int size) { super(size); }
+   }
+   
+   abstract static class VarHandleQueuePad3<E> extends VarHandleQueueHeadFields<E>
+   {
+      long p30, p31, p32, p33, p34, p35, p36, p37;
+      long p38, p39, p3a, p3b, p3c, p3d, p3e, p3f;
+      
+      static final VarHandle TAIL;
+      static final VarHandle HEAD;
+      static final VarHandle ELEMENT = MethodHandles.arrayElementVarHandle(Object[].class);
+      static
+      {
+         try
+         {
+            TAIL = MethodHandles.lookup().findVarHandle(VarHandleQueueTailFields.class, "tail", long.class);
+            HEAD = MethodHandles.lookup().findVarHandle(VarHandleQueueHeadFields.class, "head", long.class);
+         }
+         catch (ReflectiveOperationException e)
+         {
+            throw new ExceptionInInitializerError(e);
+         }
+      }
+      
+      VarHandleQueuePad3(int size) { super(size); }
+   }
+   
+   public static final class OneToOneQueueVarHandle<E> extends VarHandleQueuePad3<E> implements SimpleQueue<E>
+   {
+      public OneToOneQueueVarHandle(int size)
+      {
+         super(size);
+      }
+      
+      public final boolean offer(final E o)
+      {
+         final long curTail = (long)TAIL.getOpaque(this); // only the producer writes it so it needs no ordering
+         final long wrapPoint = curTail - bufferSize;
+         if ((long)HEAD.getAcquire(this) <= wrapPoint)
+            return false;
+         
+         ELEMENT.set(buffer, (int)(curTail & indexMask), o);
+         
+         TAIL.setRelease(this, curTail + 1); // publishes the element
+         
+         return true;
+      }
+      
+      public final E poll()
+      {
+         final long curHead = (long)HEAD.getOpaque(this); // only the consumer writes it so it needs no ordering
+         
+         if (curHead >= (long)TAIL.getAcquire(this))
+            return null;
+         
+         final int index = (int)(curHead & indexMask);
+         @SuppressWarnings("unchecked")
+         final E ret = (E)ELEMENT.get(buffer, index);
+         
+         HEAD.setRelease(this, curHead + 1);
+         
+         return ret;
+      }
+   }
+
+   public void testVarHandle() throws Throwable
+   {
+      runTests(new OneToOneQueueVarHandle<Long>(queueSize),"VarHandle Release/Acquire");
+   }
+   
+   public static final class OneToOneQueue2VarHandle<E> extends VarHandleQueuePad3<E> implements SimpleQueue<E>
+   {
+      public OneToOneQueue2VarHandle(int size)
+      {
+         super(size);
+      }
+      
+      public final boolean offer(final E o)
+      {
+         final long curTail = (long)TAIL.getOpaque(this); // only the producer writes it so it needs no ordering
+         final long wrapPoint = curTail - bufferSize;
+         
+         if (headCache <= wrapPoint)
+         {
+            headCache = (long)HEAD.getAcquire(this);
+            if (headCache <= wrapPoint)
+               return false;
+         }
+         
+         ELEMENT.set(buffer, (int)(curTail & indexMask), o);
+         
+         TAIL.setRelease(this, curTail + 1); // publishes the element
+         
+         return true;
+      }
+      
+      public final E poll()
+      {
+         final long curHead = (long)HEAD.getOpaque(this); // only the consumer writes it so it needs no ordering
+         
+         if (curHead >= tailCache)
+         {
+            tailCache = (long)TAIL.getAcquire(this);
+            if (curHead >= tailCache)
+               return null;
+         }
+         
+         final int index = (int)(curHead & indexMask);
+         @SuppressWarnings("unchecked")
+         final E ret = (E)ELEMENT.get(buffer, index);
+         
+         HEAD.setRelease(this, curHead + 1);
+         
+         return ret;
+      }
+   }
+
+   public void test2VarHandle() throws Throwable
+   {
+      runTests(new OneToOneQueue2VarHandle<Long>(queueSize),"VarHandle Release/Acquire 2Cached Head/Tail");
+   }
+
+   //=====================================================================================
+   // Same as test2Padded with counters for the slow paths, read back through JMX.
+   //=====================================================================================
+   public void testInstrumented() throws Throwable
+   {
+      final InstrumentedOneToOneQueue<Long> q = new InstrumentedOneToOneQueue<Long>(queueSize);
+      final ObjectName name = q.register("testInstrumented");
+      try
+      {
+         runTests(q,"Instrumented Padded 2Cached Head/Tail");
+         
+         final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         for (String attribute : new String[] { "Occupancy", "Offers", "Polls", "OffersFull", "PollsEmpty", "HeadCacheRefreshes", "TailCacheRefreshes" })
+            System.out.format("%s %s: %,d%n", name, attribute, server.getAttribute(name, attribute));
+      }
+      finally
+      {
+         InstrumentedOneToOneQueue.unregister(name);
+      }
+   }
+
+   //=====================================================================================
+   // Unbounded, chunks of Padded and Double Cached rings linked on overflow
+   //=====================================================================================
+   public void testLinkedArray() throws Throwable
+   {
+      runTests(new OneToOneLinkedArrayQueue<Long>(1024),"Linked Array Padded 2Cached Head/Tail");
+   }
+
+   //=====================================================================================
+   // Many to one through a Padded and Double Cached lane per producer
+   //=====================================================================================
+   public void testFanIn() throws Throwable
+   {
+      final FanInQueue<Long> q = new FanInQueue<Long>(queueSize);
+      for (int numProducers = 1; numProducers <= maxThreads(); numProducers++)
+         runTests(q, numProducers, 1, "Fan In Padded 2Cached lanes");
+   }
+
+   public static void main(String[] args) throws Throwable
+   {
+      if (args.length > 0)
+      {
+         MechanicalSympathy o = new MechanicalSympathy();
+         for (String arg : args)
+         {
+            switch(Integer.parseInt(arg))
+            {
+               case 1:
+                  o.testBlockingQueue();
+                  break;
+               case 2:
+                  o.testSynchronized();
+                  break;
+               case 3:
+                  o.testVolatile();
+                  break;
+               case 4:
+                  o.testSoftMB();
+                  break;
+               case 5:
+                  o.testSoftMBMod();
+                  break;
+               case 6:
+                  o.testCachedHeadTail();
+                  break;
+               case 7:
+                  o.test2CachedHeadTail();
+                  break;
+               case 8:
+                  o.testPadded();
+                  break;
+               case 9:
+                  o.test2Padded();
+                  break;
+               case 10:
+                  o.testLong2Padded();
+                  break;
+               case 11:
+                  o.testManyToOne();
+                  break;
+               case 12:
+                  o.testBlockingQueueManyToOne();
+                  break;
+               case 13:
+                  o.testManyToMany();
+                  break;
+               case 14:
+                  o.testBlockingQueueManyToMany();
+                  break;
+               case 15:
+                  o.testConcurrentQueueManyToMany();
+                  break;
+               case 16:
+                  o.testSharedMemory();
+                  break;
+               case 17:
+                  new PipelineBenchmark().testEventRing();
+                  break;
+               case 18:
+                  new PipelineBenchmark().testChainedQueues();
+                  break;
+               case 19:
+                  o.testVarHandle();
+                  break;
+               case 20:
+                  o.test2VarHandle();
+                  break;
+               case 21:
+                  o.testInstrumented();
+                  break;
+               case 22:
+                  o.testConcurrentQueue();
+                  break;
+               case 23:
+                  o.testLinkedArray();
+                  break;
+               case 24:
+                  o.testFanIn();
+                  break;
+               default:
+                  usage();   
+                  
+            }
+         }
+      }
+      else
+         usage();
+   }
+   
+   public static void usage()
+   {
+      System.out.println("usage: java " + MechanicalSympathy.class.getSimpleName() + "0-9");
+      System.out.println("        1: ArrayBlockingQueue");
+      System.out.println("        2: Synchronized offer/poll");
+      System.out.println("        3: Volatile head/tail");
+      System.out.println("        4: Soft Memory Barrier");
+      System.out.println("        5: Soft Memory Barrier with mod operation");
+      System.out.println("        6: Cached Head and Tail.");
+      System.out.println("        7: Double Cached Head and Tail.");
+      System.out.println("        8: Padded and Cached for false cache sharing.");
+      System.out.println("        9: Padded and Double Cached for false cache sharing.");
+      System.out.println("       10: Padded and Double Cached with primitive long[] slots.");
+      System.out.println("       11: Padded Many to One with 1.." + maxThreads() + " producers.");
+      System.out.println("       12: ArrayBlockingQueue with 1.." + maxThreads() + " producers.");
+      System.out.println("       13: Padded Many to Many with 1.." + maxThreads() + " producers x 1.." + maxThreads() + " consumers.");
+      System.out.println("       14: ArrayBlockingQueue with 1.." + maxThreads() + " producers x 1.." + maxThreads() + " consumers.");
+      System.out.println("       15: ConcurrentLinkedQueue with 1.." + maxThreads() + " producers x 1.." + maxThreads() + " consumers.");
+      System.out.println("       16: Padded and Double Cached long queue in shared memory with the consumer in a second process.");
+      System.out.println("       17: 3 stage pipeline over a preallocated event ring.");
+      System.out.println("       18: 3 stage pipeline over chained Padded and Double Cached queues.");
+      System.out.println("       19: VarHandle release/acquire head/tail padded by class hierarchy.");
+      System.out.println("       20: VarHandle release/acquire with Double Cached head/tail padded by class hierarchy.");
+      System.out.println("       21: Padded and Double Cached with slow path counters exposed as an MBean.");
+      System.out.println("       22: ConcurrentLinkedQueue.");
+      System.out.println("       23: Unbounded linked chunks of Padded and Double Cached rings.");
+      System.out.println("       24: Fan in over a Padded and Double Cached lane per producer with 1.." + maxThreads() + " producers.");
+   }
+}
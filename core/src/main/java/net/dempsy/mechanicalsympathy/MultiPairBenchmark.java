@@ -0,0 +1,237 @@
+package net.dempsy.mechanicalsympathy;
+
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.SimpleQueue;
+
+/**
+ * N independent producer/consumer pairs, each with its own queue, all running at once. The
+ * queues are allocated one after the other so they end up next to each other in the heap, the
+ * way a lot of channels created together would. Any interference between them (queues sharing
+ * lines, memory bandwidth, the last level cache) shows up as the per-pair rate falling as N
+ * grows.
+ *
+ * Each run reports every pair's rate and the aggregate. Scaling efficiency is the aggregate
+ * median at N divided by N times the per pair median at the first number of pairs given
+ * (normally 1), so 100% means the pairs don't notice each other. Pairs beyond half the cores
+ * are competing for cores rather than for the memory system, which the efficiency will show
+ * too.
+ *
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar net.dempsy.mechanicalsympathy.MultiPairBenchmark \
+ *     -pairs 1,2,4,8 OneToOneQueue2Padded OneToOneQueueCachedHeadTail
+ * </pre>
+ */
+public class MultiPairBenchmark
+{
+   private final int capacity;
+   private final int numMessages;
+   private final WaitStrategyType wait;
+
+   public MultiPairBenchmark(int capacity, int numMessages, WaitStrategyType wait)
+   {
+      this.capacity = capacity;
+      this.numMessages = numMessages;
+      this.wait = wait;
+   }
+
+   /**
+    * @return the elapsed nanoseconds of each pair followed by the elapsed nanoseconds until the
+    * last pair finished
+    */
+   public long[] run(final QueueType type, final int pairs) throws InterruptedException
+   {
+      final Long[] values = MechanicalSympathy.values;
+      final int mask = values.length - 1;
+      long expected = 0;
+      for (int i = 0; i < numMessages; i++)
+         expected += values[i & mask];
+
+      final CountDownLatch startLatch = new CountDownLatch(1);
+      final CountDownLatch latch = new CountDownLatch(pairs);
+      final long[] endTimes = new long[pairs];
+      final long[] sums = new long[pairs];
+      final List<Thread> threads = new ArrayList<Thread>();
+
+      for (int p = 0; p < pairs; p++)
+      {
+         final int pair = p;
+         final SimpleQueue<Long> q = type.create(capacity);
+         final WaitStrategy producerWait = wait.create();
+         final WaitStrategy consumerWait = wait.create();
+
+         threads.add(new Thread(new Runnable()
+         {
+            @Override
+            public void run()
+            {
+               long sum = 0;
+               for (int i = 0; i < numMessages; i++)
+                  sum += WaitStrategy.poll(q, consumerWait, producerWait);
+               endTimes[pair] = System.nanoTime();
+               sums[pair] = sum;
+               latch.countDown();
+            }
+         }, "consumer-" + p));
+
+         threads.add(new Thread(new Runnable()
+         {
+            @Override
+            public void run()
+            {
+               try { startLatch.await(); } catch (InterruptedException e) { return; }
+               for (int i = 0; i < numMessages; i++)
+                  WaitStrategy.offer(q, values[i & mask], producerWait, consumerWait);
+            }
+         }, "producer-" + p));
+      }
+
+      for (Thread thread : threads)
+         thread.start();
+      Thread.sleep(100);
+
+      final long startTime = System.nanoTime();
+      startLatch.countDown();
+      latch.await();
+
+      for (Thread thread : threads)
+         thread.join();
+
+      final long[] ret = new long[pairs + 1];
+      for (int p = 0; p < pairs; p++)
+      {
+         if (sums[p] != expected)
+            System.out.println("ERROR: pair " + p + " " + sums[p] + " didn't match the expected value " + expected);
+         ret[p] = endTimes[p] - startTime;
+         ret[pairs] = Math.max(ret[pairs], ret[p]);
+      }
+      return ret;
+   }
+
+   private long opsPerSecond(long messages, long elapsedNanos)
+   {
+      return (long)((double)messages * TimeUnit.SECONDS.toNanos(1) / elapsedNanos);
+   }
+
+   public static void main(String[] args) throws Throwable
+   {
+      final int cores = Runtime.getRuntime().availableProcessors();
+      int capacity = MechanicalSympathy.queueSize;
+      int numMessages = 1024 * 1024 * 2;
+      List<Integer> pairCounts = new ArrayList<Integer>();
+      WaitStrategyType wait = WaitStrategyType.Yield;
+      int runs = 5;
+      String csv = null;
+      List<QueueType> types = new ArrayList<QueueType>();
+
+      for (int i = 0; i < args.length; i++)
+      {
+         final String arg = args[i];
+         if ("-capacity".equals(arg) && i < args.length - 1)
+            capacity = Integer.parseInt(args[++i]);
+         else if ("-messages".equals(arg) && i < args.length - 1)
+            numMessages = Integer.parseInt(args[++i]);
+         else if ("-pairs".equals(arg) && i < args.length - 1)
+            pairCounts = SweepRunner.parseInts(args[++i]);
+         else if ("-wait".equals(arg) && i < args.length - 1)
+            wait = WaitStrategyType.valueOf(args[++i]);
+         else if ("-runs".equals(arg) && i < args.length - 1)
+            runs = Integer.parseInt(args[++i]);
+         else if ("-csv".equals(arg) && i < args.length - 1)
+            csv = args[++i];
+         else if (arg.startsWith("-"))
+         {
+            usage();
+            return;
+         }
+         else
+            types.add(QueueType.valueOf(arg));
+      }
+
+      if (pairCounts == null)
+      {
+         usage();
+         return;
+      }
+      if (pairCounts.isEmpty())
+         for (int n = 1; n <= cores; n++)
+            pairCounts.add(n);
+      if (types.isEmpty())
+         types.add(QueueType.OneToOneQueue2Padded);
+
+      PrintWriter out = null;
+      if (csv != null)
+      {
+         out = new PrintWriter(new FileWriter(csv));
+         out.println("queue,capacity,messages,pairs,pair,wait,run,elapsed_ns,ops_per_sec");
+      }
+
+      MultiPairBenchmark o = new MultiPairBenchmark(capacity, numMessages, wait);
+      for (QueueType type : types)
+      {
+         o.run(type, 1); // warm up the queue's code before the single pair baseline
+         double single = 0;
+         for (int pairs : pairCounts)
+         {
+            final String prefix = String.format("%s %d pairs", type, pairs);
+            final long[] aggregates = new long[runs];
+            for (int run = 0; run < runs; run++)
+            {
+               final long[] elapsed = o.run(type, pairs);
+               final long[] rates = new long[pairs];
+               for (int p = 0; p < pairs; p++)
+                  rates[p] = o.opsPerSecond(numMessages, elapsed[p]);
+               aggregates[run] = o.opsPerSecond((long)numMessages * pairs, elapsed[pairs]);
+
+               final long[] sorted = rates.clone();
+               Arrays.sort(sorted);
+               System.out.format("%s run %d aggregate %,d ops/sec per pair min %,d median %,.0f max %,d%n", prefix, run, aggregates[run],
+                     sorted[0], Statistics.median(toDoubles(sorted)), sorted[pairs - 1]);
+
+               if (out != null)
+               {
+                  for (int p = 0; p < pairs; p++)
+                     out.format("%s,%d,%d,%d,%d,%s,%d,%d,%d%n", type, capacity, numMessages, pairs, p, wait, run, elapsed[p], rates[p]);
+                  out.format("%s,%d,%d,%d,all,%s,%d,%d,%d%n", type, capacity, numMessages, pairs, wait, run, elapsed[pairs], aggregates[run]);
+                  out.flush();
+               }
+            }
+
+            final Statistics stats = Statistics.of(aggregates);
+            if (single == 0)
+               single = stats.median / pairs;
+            System.out.format("%s aggregate %s scaling efficiency %.0f%%%n", prefix, stats, 100.0 * stats.median / (single * pairs));
+         }
+      }
+
+      if (out != null)
+         out.close();
+   }
+
+   private static double[] toDoubles(long[] values)
+   {
+      final double[] ret = new double[values.length];
+      for (int i = 0; i < values.length; i++)
+         ret[i] = values[i];
+      return ret;
+   }
+
+   public static void usage()
+   {
+      System.out.println("usage: java " + MultiPairBenchmark.class.getName() + " [options] [queue types...]");
+      System.out.println("        -capacity n       capacity of each queue (default " + MechanicalSympathy.queueSize + ")");
+      System.out.println("        -messages n       messages per pair per run (default " + (1024 * 1024 * 2) + ")");
+      System.out.println("        -pairs list       numbers of concurrent pairs (default 1 to the number of cores)");
+      System.out.println("        -wait strategy    wait strategy for both sides (default Yield)");
+      System.out.println("        -runs n           runs of each number of pairs (default 5)");
+      System.out.println("        -csv file         also write one line per pair per run, plus the aggregate as pair 'all'");
+      System.out.println("      queue types default to OneToOneQueue2Padded");
+      System.out.println("      a list is comma separated values and/or ranges like 1..16 that double each step from a start of at least 1");
+   }
+}
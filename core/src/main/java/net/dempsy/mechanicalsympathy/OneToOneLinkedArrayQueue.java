@@ -0,0 +1,162 @@
+package net.dempsy.mechanicalsympathy;
+
+import java.util.Arrays;
+
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.OneToOneQueue2Padded;
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.PaddedAtomicLong;
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.PaddedLong;
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.SimpleQueue;
+
+/**
+ * An unbounded single producer, single consumer queue made of linked power of 2 array chunks.
+ * {@link #offer(Object)} never fails.
+ *
+ * While the consumer keeps up the producer stays in one chunk and uses it as a ring exactly
+ * like {@link OneToOneQueue2Padded}: head and tail are padded, each side caches the other's
+ * position and the slot is the index masked by the chunk size. Only when that ring is full
+ * does the producer link a new chunk and carry on in it, noting in the full one the index at
+ * which the consumer has to follow. Indexes keep counting across chunks so the mask still
+ * works. Once the consumer has left a chunk it hands it back to the producer through a small
+ * {@link OneToOneQueue2Padded} to be reused for the next overflow, so a queue that's had a
+ * burst doesn't allocate again for the next one of the same size.
+ */
+public final class OneToOneLinkedArrayQueue<E> implements SimpleQueue<E>
+{
+   public final static int defaultRecycledChunks = 8;
+
+   private static final class Chunk
+   {
+      final Object[] buffer;
+      Chunk next; // set by the producer before any index at or past endIndex is published
+      long endIndex = Long.MAX_VALUE; // the first index that's in next
+
+      Chunk(int size)
+      {
+         buffer = new Object[size];
+      }
+   }
+
+   private final PaddedAtomicLong tail = new PaddedAtomicLong(0);
+   private final PaddedAtomicLong head = new PaddedAtomicLong(0);
+
+   private final PaddedLong tailCache = new PaddedLong(); // used in poll
+   private final PaddedLong headCache = new PaddedLong(); // used in offer
+
+   private final PaddedLong offerSideTailCache = new PaddedLong();
+   private final PaddedLong pollSideHeadCache = new PaddedLong();
+   private final PaddedLong chunkStart = new PaddedLong(); // first index in the producer's chunk, producer only
+
+   private Chunk producerChunk;
+   private Chunk consumerChunk;
+   private long chunksAllocated = 1; // producer only
+
+   private final OneToOneQueue2Padded<Chunk> recycled;
+
+   private final int chunkSize;
+   private final int indexMask;
+
+   public OneToOneLinkedArrayQueue(int chunkSize)
+   {
+      this(chunkSize, defaultRecycledChunks);
+   }
+
+   /**
+    * @param recycledChunks how many chunks the consumer can hand back to the producer for
+    * reuse. Chunks beyond that are left to the garbage collector. Must be a power of 2.
+    */
+   public OneToOneLinkedArrayQueue(int chunkSize, int recycledChunks)
+   {
+      if (Integer.bitCount(chunkSize) != 1)
+         throw new IllegalArgumentException("chunkSize must be a power of 2");
+
+      this.chunkSize = chunkSize;
+      this.indexMask = chunkSize - 1;
+      this.recycled = new OneToOneQueue2Padded<Chunk>(recycledChunks);
+
+      producerChunk = consumerChunk = new Chunk(chunkSize);
+   }
+
+   public final boolean offer(final E o)
+   {
+      final long curTail = offerSideTailCache.value;
+      final long wrapPoint = curTail - chunkSize;
+
+      if (chunkStart.value <= wrapPoint && headCache.value <= wrapPoint)
+      {
+         headCache.value = head.get();
+         if (headCache.value <= wrapPoint)
+            overflow(curTail);
+      }
+
+      producerChunk.buffer[(int)(curTail & indexMask)] = o;
+
+      final long nextTail = curTail + 1;
+      offerSideTailCache.value = nextTail;
+      tail.lazySet(nextTail); // StoreStore memory barrier, also publishes any new link
+
+      return true;
+   }
+
+   private void overflow(final long curTail)
+   {
+      Chunk next = recycled.poll();
+      if (next == null)
+      {
+         next = new Chunk(chunkSize);
+         chunksAllocated++;
+      }
+
+      producerChunk.next = next;
+      producerChunk.endIndex = curTail;
+      producerChunk = next;
+      chunkStart.value = curTail;
+   }
+
+   @SuppressWarnings("unchecked")
+   public final E poll()
+   {
+      final long curHead = pollSideHeadCache.value;
+
+      if (curHead >= tailCache.value)
+      {
+         tailCache.value = tail.get();
+         if (curHead >= tailCache.value)
+            return null;
+      }
+
+      if (curHead == consumerChunk.endIndex)
+      {
+         final Chunk done = consumerChunk;
+         consumerChunk = done.next;
+
+         // nothing in it is reachable from the queue any more
+         Arrays.fill(done.buffer, null);
+         done.next = null;
+         done.endIndex = Long.MAX_VALUE;
+         recycled.offer(done);
+      }
+
+      final E ret = (E)consumerChunk.buffer[(int)(curHead & indexMask)];
+
+      final long nextHead = curHead + 1;
+      pollSideHeadCache.value = nextHead;
+      head.lazySet(nextHead); // StoreStore memory barrier
+
+      return ret;
+   }
+
+   /**
+    * The number of chunks the producer has had to allocate including the first one. Only
+    * meaningful when read from the producer thread or after it's finished.
+    */
+   public long chunksAllocated()
+   {
+      return chunksAllocated;
+   }
+
+   public int size()
+   {
+      final long curHead = head.get();
+      return (int)(tail.get() - curHead);
+   }
+}
@@ -0,0 +1,185 @@
+package net.dempsy.mechanicalsympathy;
+
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.SimpleQueue;
+
+/**
+ * Round trip latency of a single message bounced between two threads over a pair of queues of
+ * the same type, one in each direction. There's never more than one message in flight, so
+ * every offer and poll finds the queue empty or about to be, the cached head and tail are
+ * stale every time and each hop pays for moving the slot and the index lines between cores.
+ * That's the opposite of the throughput tests where the ring stays nearly full.
+ *
+ * Both sides busy spin by default since anything else measures the scheduler rather than the
+ * queue. That needs two free cores. Use -wait Yield on a smaller machine.
+ *
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar net.dempsy.mechanicalsympathy.PingPongBenchmark \
+ *     -trips 10000000 OneToOneQueueBlocking OneToOneQueue2Padded
+ * </pre>
+ */
+public class PingPongBenchmark
+{
+   private final int capacity;
+   private final int numTrips;
+   private final int numWarmup;
+
+   public PingPongBenchmark(int capacity, int numTrips, int numWarmup)
+   {
+      this.capacity = capacity;
+      this.numTrips = numTrips;
+      this.numWarmup = numWarmup;
+   }
+
+   public static final class Result
+   {
+      public final Histogram histogram;
+      public final long elapsedNanos;
+
+      public Result(Histogram histogram, long elapsedNanos)
+      {
+         this.histogram = histogram;
+         this.elapsedNanos = elapsedNanos;
+      }
+
+      public long tripsPerSecond()
+      {
+         return (long)((double)histogram.getTotalCount() * TimeUnit.SECONDS.toNanos(1) / elapsedNanos);
+      }
+   }
+
+   public Result measure(final QueueType type, final WaitStrategyType wait) throws InterruptedException
+   {
+      final SimpleQueue<Long> ping = type.create(capacity);
+      final SimpleQueue<Long> pong = type.create(capacity);
+      final WaitStrategy pingerWait = wait.create();
+      final WaitStrategy pongerWait = wait.create();
+      final int total = numWarmup + numTrips;
+
+      Thread ponger = new Thread(new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            for (int i = 0; i < total; i++)
+               WaitStrategy.offer(pong, WaitStrategy.poll(ping, pongerWait, pingerWait), pongerWait, pingerWait);
+         }
+      }, "ponger-" + type);
+      ponger.start();
+
+      final Histogram histogram = new Histogram(LatencyBenchmark.highestTrackableLatency, 3);
+      final Long[] values = MechanicalSympathy.values;
+      final int mask = values.length - 1;
+      long measureStart = System.nanoTime();
+      for (int i = 0; i < total; i++)
+      {
+         if (i == numWarmup)
+            measureStart = System.nanoTime();
+
+         final Long value = values[i & mask];
+         final long start = System.nanoTime();
+         WaitStrategy.offer(ping, value, pingerWait, pongerWait);
+         final Long returned = WaitStrategy.poll(pong, pingerWait, pongerWait);
+         final long rtt = System.nanoTime() - start;
+
+         if (returned != value)
+            System.out.println("ERROR: " + returned + " didn't match the expected value " + value);
+         if (i >= numWarmup)
+            histogram.recordValue(Math.min(rtt, LatencyBenchmark.highestTrackableLatency));
+      }
+      final long endTime = System.nanoTime();
+
+      ponger.join();
+      return new Result(histogram, endTime - measureStart);
+   }
+
+   public static void main(String[] args) throws Throwable
+   {
+      int capacity = MechanicalSympathy.queueSize;
+      int numTrips = 1024 * 1024 * 4;
+      int numWarmup = 1024 * 1024;
+      WaitStrategyType wait = WaitStrategyType.BusySpin;
+      int runs = 1;
+      String csv = null;
+      List<QueueType> types = new ArrayList<QueueType>();
+
+      for (int i = 0; i < args.length; i++)
+      {
+         final String arg = args[i];
+         if ("-capacity".equals(arg) && i < args.length - 1)
+            capacity = Integer.parseInt(args[++i]);
+         else if ("-trips".equals(arg) && i < args.length - 1)
+            numTrips = Integer.parseInt(args[++i]);
+         else if ("-warmup".equals(arg) && i < args.length - 1)
+            numWarmup = Integer.parseInt(args[++i]);
+         else if ("-wait".equals(arg) && i < args.length - 1)
+            wait = WaitStrategyType.valueOf(args[++i]);
+         else if ("-runs".equals(arg) && i < args.length - 1)
+            runs = Integer.parseInt(args[++i]);
+         else if ("-csv".equals(arg) && i < args.length - 1)
+            csv = args[++i];
+         else if (arg.startsWith("-"))
+         {
+            usage();
+            return;
+         }
+         else
+            types.add(QueueType.valueOf(arg));
+      }
+
+      if (types.isEmpty())
+         for (QueueType type : QueueType.values())
+            types.add(type);
+
+      PrintWriter out = null;
+      if (csv != null)
+      {
+         out = new PrintWriter(new FileWriter(csv));
+         StringBuilder header = new StringBuilder("queue,capacity,wait,run,ops_per_sec");
+         for (double p : LatencyBenchmark.percentiles)
+            header.append(",").append(LatencyBenchmark.columnName(p));
+         out.println(header.append(",max_ns"));
+      }
+
+      PingPongBenchmark o = new PingPongBenchmark(capacity, numTrips, numWarmup);
+      for (QueueType type : types)
+      {
+         for (int run = 0; run < runs; run++)
+         {
+            final Result result = o.measure(type, wait);
+            System.out.println(LatencyBenchmark.format(String.format("%s %s %,d round trips/sec RTT", type, wait, result.tripsPerSecond()), result.histogram));
+            if (out != null)
+            {
+               StringBuilder line = new StringBuilder();
+               line.append(type).append(',').append(capacity).append(',').append(wait).append(',').append(run).append(',').append(result.tripsPerSecond());
+               for (double p : LatencyBenchmark.percentiles)
+                  line.append(',').append(result.histogram.getValueAtPercentile(p));
+               out.println(line.append(',').append(result.histogram.getMaxValue()));
+               out.flush();
+            }
+         }
+      }
+
+      if (out != null)
+         out.close();
+   }
+
+   public static void usage()
+   {
+      System.out.println("usage: java " + PingPongBenchmark.class.getName() + " [options] [queue types...]");
+      System.out.println("        -capacity n       capacity of both queues (default " + MechanicalSympathy.queueSize + ")");
+      System.out.println("        -trips n          measured round trips (default " + (1024 * 1024 * 4) + ")");
+      System.out.println("        -warmup n         round trips before measuring (default " + (1024 * 1024) + ")");
+      System.out.println("        -wait strategy    wait strategy for both sides (default BusySpin)");
+      System.out.println("        -runs n           runs of each queue type (default 1)");
+      System.out.println("        -csv file         also write one line per run as CSV");
+      System.out.println("      queue types default to all of them");
+   }
+}
@@ -0,0 +1,209 @@
+package net.dempsy.mechanicalsympathy;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Supplier;
+
+import net.dempsy.mechanicalsympathy.EventRing.EventHandler;
+import net.dempsy.mechanicalsympathy.EventRing.EventProcessor;
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.OneToOneQueue2Padded;
+
+/**
+ * End to end throughput of a journal -> replicate -> business logic pipeline, first as three
+ * processors over one {@link EventRing} and then as four threads joined by three chained
+ * {@link OneToOneQueue2Padded}s. Each stage does a trivial amount of work on the value and the
+ * last one sums them so the result can be checked against {@link MechanicalSympathy#valuesSum}.
+ */
+public class PipelineBenchmark
+{
+   public static final class ValueEvent
+   {
+      public long value;
+      public long journaled;
+      public long replicated;
+   }
+
+   private static void assertEquals(long expected, long actual)
+   {
+      if (expected != actual)
+         System.out.println("ERROR: " + actual + " didn't match the expected value " + expected);
+   }
+
+   private static long opsPerSecond(long startTime, long endTime)
+   {
+      return (long)((double)((long)MechanicalSympathy.numIterations * 1000L)/(double)(endTime - startTime));
+   }
+
+   //=====================================================================================
+
+   public long runEventRing(String prefix) throws Throwable
+   {
+      final int numIterations = MechanicalSympathy.numIterations;
+      final long[] values = MechanicalSympathy.primitiveValues;
+      final CountDownLatch latch = new CountDownLatch(1);
+      final long[] result = new long[1];
+
+      final EventRing<ValueEvent> ring = new EventRing<ValueEvent>(new Supplier<ValueEvent>()
+      {
+         @Override
+         public ValueEvent get() { return new ValueEvent(); }
+      }, MechanicalSympathy.queueSize, new WaitStrategy.Yield(), new WaitStrategy.Yield());
+
+      final EventProcessor<ValueEvent> journal = ring.newProcessor(new EventHandler<ValueEvent>()
+      {
+         @Override
+         public void onEvent(ValueEvent event, long sequence, boolean endOfBatch)
+         {
+            event.journaled = event.value;
+         }
+      });
+      final EventProcessor<ValueEvent> replicate = ring.newProcessor(new EventHandler<ValueEvent>()
+      {
+         @Override
+         public void onEvent(ValueEvent event, long sequence, boolean endOfBatch)
+         {
+            event.replicated = event.journaled;
+         }
+      }, journal.sequence());
+      final EventProcessor<ValueEvent> logic = ring.newProcessor(new EventHandler<ValueEvent>()
+      {
+         long sum = 0;
+
+         @Override
+         public void onEvent(ValueEvent event, long sequence, boolean endOfBatch)
+         {
+            sum += event.replicated;
+            if (sequence == numIterations - 1)
+            {
+               result[0] = sum;
+               latch.countDown();
+            }
+         }
+      }, replicate.sequence());
+      ring.setGatingSequences(logic.sequence());
+
+      final EventProcessor<?>[] processors = { journal, replicate, logic };
+      final Thread[] threads = new Thread[processors.length];
+      for (int i = 0; i < processors.length; i++)
+      {
+         threads[i] = new Thread(processors[i]);
+         threads[i].start();
+      }
+      Thread.sleep(100);
+
+      long startTime = System.currentTimeMillis();
+
+      for (int i = 0; i < numIterations; i++)
+      {
+         final long sequence = ring.next();
+         ring.get(sequence).value = values[i];
+         ring.publish(sequence);
+      }
+
+      latch.await();
+      long endTime = System.currentTimeMillis();
+
+      for (int i = 0; i < processors.length; i++)
+      {
+         processors[i].halt();
+         threads[i].join();
+      }
+
+      assertEquals(MechanicalSympathy.valuesSum, result[0]);
+      final long ret = opsPerSecond(startTime, endTime);
+      System.out.format("%s %,d ops/sec%n", prefix, ret);
+      return ret;
+   }
+
+   //=====================================================================================
+
+   private static Thread stage(final OneToOneQueue2Padded<Long> from, final OneToOneQueue2Padded<Long> to)
+   {
+      return new Thread(new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            Long cur;
+            for (int i = 0; i < MechanicalSympathy.numIterations; i++)
+            {
+               while ((cur = from.poll()) == null) Thread.yield();
+               while (!to.offer(cur)) Thread.yield();
+            }
+         }
+      });
+   }
+
+   public long runChainedQueues(String prefix) throws Throwable
+   {
+      final int numIterations = MechanicalSympathy.numIterations;
+      final Long[] values = MechanicalSympathy.values;
+      final CountDownLatch latch = new CountDownLatch(1);
+      final long[] result = new long[1];
+
+      final OneToOneQueue2Padded<Long> toJournal = new OneToOneQueue2Padded<Long>(MechanicalSympathy.queueSize);
+      final OneToOneQueue2Padded<Long> toReplicate = new OneToOneQueue2Padded<Long>(MechanicalSympathy.queueSize);
+      final OneToOneQueue2Padded<Long> toLogic = new OneToOneQueue2Padded<Long>(MechanicalSympathy.queueSize);
+
+      stage(toJournal, toReplicate).start();
+      stage(toReplicate, toLogic).start();
+      new Thread(new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            long sum = 0;
+            Long cur;
+            for (int i = 0; i < numIterations; i++)
+            {
+               while ((cur = toLogic.poll()) == null) Thread.yield();
+               sum += cur;
+            }
+            result[0] = sum;
+            latch.countDown();
+         }
+      }).start();
+      Thread.sleep(100);
+
+      long startTime = System.currentTimeMillis();
+
+      for (int i = 0; i < numIterations; i++)
+         while (!toJournal.offer(values[i])) Thread.yield();
+
+      latch.await();
+      long endTime = System.currentTimeMillis();
+
+      assertEquals(MechanicalSympathy.valuesSum, result[0]);
+      final long ret = opsPerSecond(startTime, endTime);
+      System.out.format("%s %,d ops/sec%n", prefix, ret);
+      return ret;
+   }
+
+   //=====================================================================================
+
+   public void testEventRing() throws Throwable
+   {
+      final long[] runs = new long[MechanicalSympathy.numRuns];
+      long average = 0;
+      for (int i = 0; i < MechanicalSympathy.numRuns; i++)
+         average += runs[i] = runEventRing("3 Stage Event Ring");
+      System.out.format("%s Average: %,d ops/sec%n", "3 Stage Event Ring", (average / (long)MechanicalSympathy.numRuns));
+      System.out.format("%s %s%n", "3 Stage Event Ring", Statistics.of(runs));
+   }
+
+   public void testChainedQueues() throws Throwable
+   {
+      final long[] runs = new long[MechanicalSympathy.numRuns];
+      long average = 0;
+      for (int i = 0; i < MechanicalSympathy.numRuns; i++)
+         average += runs[i] = runChainedQueues("3 Stage Chained Padded Queues");
+      System.out.format("%s Average: %,d ops/sec%n", "3 Stage Chained Padded Queues", (average / (long)MechanicalSympathy.numRuns));
+      System.out.format("%s %s%n", "3 Stage Chained Padded Queues", Statistics.of(runs));
+   }
+
+   public static void main(String[] args) throws Throwable
+   {
+      PipelineBenchmark o = new PipelineBenchmark();
+      o.testEventRing();
+      o.testChainedQueues();
+   }
+}
@@ -0,0 +1,244 @@
+package net.dempsy.mechanicalsympathy;
+
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.HdrHistogram.Histogram;
+
+import net.dempsy.mechanicalsympathy.CpuTopology.Placement;
+import net.dempsy.mechanicalsympathy.LatencyBenchmark.Result;
+
+/**
+ * Runs {@link LatencyBenchmark} at the maximum rate with the producer and consumer pinned to
+ * each {@link Placement} this machine has, so a result says whether it came from two hardware
+ * threads of one core, two cores of a socket or two sockets instead of wherever the scheduler
+ * happened to put the threads. The run is repeated unpinned for comparison.
+ *
+ * Every run prints its throughput and latency percentiles. At the end there's a matrix of queue
+ * type against placement with the median throughput and the p99 latency of all the runs after
+ * the first. Placements the machine can't provide are reported and skipped, and on a machine
+ * with a single cpu only {@link Placement#SameCpu} and {@link Placement#Unpinned} are left. A
+ * run where either thread couldn't be pinned is reported and left out of the results, since
+ * it didn't run under its placement.
+ *
+ * Pinning is done through {@link Affinity} so it only works on Linux with taskset installed.
+ *
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar net.dempsy.mechanicalsympathy.PlacementBenchmark \
+ *     -runs 5 OneToOneQueue2Padded ArrayBlockingQueue
+ * </pre>
+ */
+public class PlacementBenchmark
+{
+   private final LatencyBenchmark latency;
+   private final WaitStrategyType wait;
+
+   public PlacementBenchmark(int capacity, int numMessages, int numWarmup, WaitStrategyType wait)
+   {
+      this.latency = new LatencyBenchmark(capacity, numMessages, numWarmup, true);
+      this.wait = wait;
+   }
+
+   /**
+    * Runs the measurement on a new thread pinned to the producer cpu so the calling thread's
+    * own affinity is left alone. An empty pair runs unpinned. Whatever the measurement throws
+    * is rethrown here.
+    *
+    * @return the result, or null if either thread couldn't be pinned to its cpu
+    */
+   public Result measure(final QueueType type, final int[] cpus) throws Throwable
+   {
+      final Result[] result = new Result[1];
+      final Throwable[] failure = new Throwable[1];
+      final Thread producer = new Thread(new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            if (cpus.length > 0 && !Affinity.pin(cpus[0]))
+            {
+               System.out.println("WARNING: couldn't pin the producer to cpu " + cpus[0]);
+               return;
+            }
+            try
+            {
+               result[0] = latency.measure(type, 0, wait.create(), wait.create(), cpus.length > 0 ? cpus[1] : -1);
+            }
+            catch (Throwable t)
+            {
+               failure[0] = t;
+            }
+         }
+      }, "producer-" + type);
+      producer.start();
+      producer.join();
+
+      if (failure[0] != null)
+         throw failure[0];
+      return result[0] == null || !result[0].pinned ? null : result[0];
+   }
+
+   public static void main(String[] args) throws Throwable
+   {
+      int capacity = MechanicalSympathy.queueSize;
+      int numMessages = 1024 * 1024 * 4;
+      int numWarmup = 1024 * 1024;
+      WaitStrategyType wait = WaitStrategyType.Yield;
+      int runs = MechanicalSympathy.numRuns;
+      String csv = null;
+      List<Placement> placements = new ArrayList<Placement>();
+      List<QueueType> types = new ArrayList<QueueType>();
+
+      for (int i = 0; i < args.length; i++)
+      {
+         final String arg = args[i];
+         if ("-capacity".equals(arg) && i < args.length - 1)
+            capacity = Integer.parseInt(args[++i]);
+         else if ("-messages".equals(arg) && i < args.length - 1)
+            numMessages = Integer.parseInt(args[++i]);
+         else if ("-warmup".equals(arg) && i < args.length - 1)
+            numWarmup = Integer.parseInt(args[++i]);
+         else if ("-wait".equals(arg) && i < args.length - 1)
+            wait = WaitStrategyType.valueOf(args[++i]);
+         else if ("-runs".equals(arg) && i < args.length - 1)
+            runs = Integer.parseInt(args[++i]);
+         else if ("-placement".equals(arg) && i < args.length - 1)
+         {
+            for (String placement : args[++i].split(","))
+               placements.add(Placement.valueOf(placement));
+         }
+         else if ("-csv".equals(arg) && i < args.length - 1)
+            csv = args[++i];
+         else if (arg.startsWith("-"))
+         {
+            usage();
+            return;
+         }
+         else
+            types.add(QueueType.valueOf(arg));
+      }
+
+      if (placements.isEmpty())
+         for (Placement placement : Placement.values())
+            placements.add(placement);
+      if (types.isEmpty())
+         for (QueueType type : QueueType.values())
+            types.add(type);
+
+      final CpuTopology topology = CpuTopology.read();
+      System.out.println("topology: " + topology + (Affinity.isSupported() ? "" : " (pinning not supported here)"));
+
+      // the placements to run and the producer and consumer cpus for each
+      final Map<Placement, int[]> pairs = new LinkedHashMap<Placement, int[]>();
+      for (Placement placement : placements)
+      {
+         final int[] cpus = placement == Placement.Unpinned || Affinity.isSupported() ? topology.pair(placement) : null;
+         if (cpus == null)
+            System.out.println(placement + " skipped: not available on this machine");
+         else
+         {
+            pairs.put(placement, cpus);
+            if (cpus.length > 0)
+               System.out.format("%s producer on cpu %d consumer on cpu %d%n", placement, cpus[0], cpus[1]);
+         }
+      }
+
+      PrintWriter out = null;
+      if (csv != null)
+      {
+         out = new PrintWriter(new FileWriter(csv));
+         StringBuilder header = new StringBuilder("queue,capacity,wait,placement,producer_cpu,consumer_cpu,run,ops_per_sec");
+         for (double p : LatencyBenchmark.percentiles)
+            header.append(",").append(LatencyBenchmark.columnName(p));
+         out.println(header.append(",max_ns"));
+      }
+
+      PlacementBenchmark o = new PlacementBenchmark(capacity, numMessages, numWarmup, wait);
+      final Map<QueueType, Map<Placement, String>> matrix = new LinkedHashMap<QueueType, Map<Placement, String>>();
+      for (QueueType type : types)
+      {
+         final Map<Placement, String> row = new LinkedHashMap<Placement, String>();
+         matrix.put(type, row);
+         for (Map.Entry<Placement, int[]> entry : pairs.entrySet())
+         {
+            final Placement placement = entry.getKey();
+            final int[] cpus = entry.getValue();
+            final String prefix = String.format("%s %s %s", type, placement, wait);
+            final long[] results = new long[runs];
+            int recorded = 0;
+            final Histogram histogram = new Histogram(LatencyBenchmark.highestTrackableLatency, 3);
+            for (int run = 0; run < runs; run++)
+            {
+               final Result result = o.measure(type, cpus);
+               if (result == null)
+               {
+                  System.out.format("%s run %d skipped: not pinned%n", prefix, run);
+                  continue;
+               }
+               results[recorded++] = result.opsPerSecond();
+               System.out.println(LatencyBenchmark.format(String.format("%s %,d ops/sec", prefix, result.opsPerSecond()), result.histogram));
+               if (run > 0 || runs == 1) // leave the first run out of the latencies as warmup
+                  histogram.add(result.histogram);
+
+               if (out != null)
+               {
+                  StringBuilder line = new StringBuilder();
+                  line.append(type).append(',').append(capacity).append(',').append(wait).append(',').append(placement)
+                        .append(',').append(cpus.length > 0 ? cpus[0] : -1).append(',').append(cpus.length > 0 ? cpus[1] : -1)
+                        .append(',').append(run).append(',').append(result.opsPerSecond());
+                  for (double p : LatencyBenchmark.percentiles)
+                     line.append(',').append(result.histogram.getValueAtPercentile(p));
+                  out.println(line.append(',').append(result.histogram.getMaxValue()));
+                  out.flush();
+               }
+            }
+            if (recorded == 0)
+            {
+               row.put(placement, "not pinned");
+               continue;
+            }
+            final Statistics stats = Statistics.of(Arrays.copyOf(results, recorded));
+            System.out.format("%s %s%n", prefix, stats);
+            row.put(placement, String.format("%,.0f / %,d", stats.median, histogram.getValueAtPercentile(99.0)));
+         }
+      }
+
+      if (out != null)
+         out.close();
+
+      System.out.println();
+      System.out.println("median ops/sec / p99 ns");
+      System.out.format("%-28s", "");
+      for (Placement placement : pairs.keySet())
+         System.out.format(" %24s", placement);
+      System.out.println();
+      for (Map.Entry<QueueType, Map<Placement, String>> row : matrix.entrySet())
+      {
+         System.out.format("%-28s", row.getKey());
+         for (String cell : row.getValue().values())
+            System.out.format(" %24s", cell);
+         System.out.println();
+      }
+   }
+
+   public static void usage()
+   {
+      System.out.println("usage: java " + PlacementBenchmark.class.getName() + " [options] [queue types...]");
+      System.out.println("        -capacity n       queue capacity (default " + MechanicalSympathy.queueSize + ")");
+      System.out.println("        -messages n       measured messages per run (default " + (1024 * 1024 * 4) + ")");
+      System.out.println("        -warmup n         messages sent before measuring (default " + (1024 * 1024) + ")");
+      System.out.println("        -wait strategy    wait strategy for both sides (default Yield)");
+      System.out.println("        -runs n           runs of each queue type and placement (default " + MechanicalSympathy.numRuns + ")");
+      System.out.print("        -placement list   comma separated placements (default all of them):");
+      for (Placement placement : Placement.values())
+         System.out.print(" " + placement);
+      System.out.println();
+      System.out.println("        -csv file         also write one line per run as CSV");
+      System.out.println("      queue types default to all of them");
+   }
+}
@@ -0,0 +1,111 @@
+package net.dempsy.mechanicalsympathy;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.ManyToManyQueuePadded;
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.ManyToOneQueuePadded;
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.OneToOneQueue2CachedHeadTail;
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.OneToOneQueue2Padded;
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.OneToOneQueue2VarHandle;
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.OneToOneQueueBlocking;
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.OneToOneQueueCachedHeadTail;
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.OneToOneQueuePadded;
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.OneToOneQueueSoftMB;
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.OneToOneQueueSoftMBMod;
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.OneToOneQueueVarHandle;
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.OneToOneQueueVolatile;
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.SimpleQueue;
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.SimpleQueueAdapter;
+
+/**
+ * Every queue implementation the benchmarks know how to build, so that harnesses can
+ * select them by name (for example as a JMH {@code @Param}). Capacities should be a
+ * power of 2 since most of the ring implementations require it. The
+ * {@link ConcurrentLinkedQueue} is unbounded and ignores the capacity. The
+ * {@link OneToOneLinkedArrayQueue} is unbounded and takes it as its chunk size. The
+ * {@link FanInQueue} gives every producer a lane of that capacity. Harnesses that run more
+ * than one producer or consumer should check {@link #multiProducer} and {@link #multiConsumer}.
+ */
+public enum QueueType
+{
+   ArrayBlockingQueue(true, true)
+   {
+      public <E> SimpleQueue<E> create(int capacity) { return new SimpleQueueAdapter<E>(new ArrayBlockingQueue<E>(capacity)); }
+   },
+   ConcurrentLinkedQueue(true, true)
+   {
+      public <E> SimpleQueue<E> create(int capacity) { return new SimpleQueueAdapter<E>(new ConcurrentLinkedQueue<E>()); }
+   },
+   OneToOneQueueBlocking(false, false)
+   {
+      public <E> SimpleQueue<E> create(int capacity) { return new OneToOneQueueBlocking<E>(capacity); }
+   },
+   OneToOneQueueVolatile(false, false)
+   {
+      public <E> SimpleQueue<E> create(int capacity) { return new OneToOneQueueVolatile<E>(capacity); }
+   },
+   OneToOneQueueSoftMB(false, false)
+   {
+      public <E> SimpleQueue<E> create(int capacity) { return new OneToOneQueueSoftMB<E>(capacity); }
+   },
+   OneToOneQueueSoftMBMod(false, false)
+   {
+      public <E> SimpleQueue<E> create(int capacity) { return new OneToOneQueueSoftMBMod<E>(capacity); }
+   },
+   OneToOneQueueCachedHeadTail(false, false)
+   {
+      public <E> SimpleQueue<E> create(int capacity) { return new OneToOneQueueCachedHeadTail<E>(capacity); }
+   },
+   OneToOneQueue2CachedHeadTail(false, false)
+   {
+      public <E> SimpleQueue<E> create(int capacity) { return new OneToOneQueue2CachedHeadTail<E>(capacity); }
+   },
+   OneToOneQueuePadded(false, false)
+   {
+      public <E> SimpleQueue<E> create(int capacity) { return new OneToOneQueuePadded<E>(capacity); }
+   },
+   OneToOneQueue2Padded(false, false)
+   {
+      public <E> SimpleQueue<E> create(int capacity) { return new OneToOneQueue2Padded<E>(capacity); }
+   },
+   OneToOneQueueVarHandle(false, false)
+   {
+      public <E> SimpleQueue<E> create(int capacity) { return new OneToOneQueueVarHandle<E>(capacity); }
+   },
+   OneToOneQueue2VarHandle(false, false)
+   {
+      public <E> SimpleQueue<E> create(int capacity) { return new OneToOneQueue2VarHandle<E>(capacity); }
+   },
+   InstrumentedOneToOneQueue(false, false)
+   {
+      public <E> SimpleQueue<E> create(int capacity) { return new InstrumentedOneToOneQueue<E>(capacity); }
+   },
+   OneToOneLinkedArrayQueue(false, false)
+   {
+      public <E> SimpleQueue<E> create(int capacity) { return new OneToOneLinkedArrayQueue<E>(capacity); }
+   },
+   ManyToOneQueuePadded(true, false)
+   {
+      public <E> SimpleQueue<E> create(int capacity) { return new ManyToOneQueuePadded<E>(capacity); }
+   },
+   ManyToManyQueuePadded(true, true)
+   {
+      public <E> SimpleQueue<E> create(int capacity) { return new ManyToManyQueuePadded<E>(capacity); }
+   },
+   FanInQueue(true, false)
+   {
+      public <E> SimpleQueue<E> create(int capacity) { return new FanInQueue<E>(capacity); }
+   };
+
+   public final boolean multiProducer;
+   public final boolean multiConsumer;
+
+   private QueueType(boolean multiProducer, boolean multiConsumer)
+   {
+      this.multiProducer = multiProducer;
+      this.multiConsumer = multiConsumer;
+   }
+
+   public abstract <E> SimpleQueue<E> create(int capacity);
+}
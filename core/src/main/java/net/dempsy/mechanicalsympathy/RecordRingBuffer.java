@@ -0,0 +1,207 @@
+package net.dempsy.mechanicalsympathy;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.PaddedAtomicLong;
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.PaddedLong;
+
+/**
+ * One to one ring of variable length records in a direct {@link ByteBuffer}. Each record is
+ * an 8 byte header (the int length of the record including the header, and an int type id)
+ * followed by the body, and is padded out to 8 byte alignment. A record never wraps. When
+ * one doesn't fit before the end of the buffer a padding record fills the rest and the record
+ * goes at the start.
+ *
+ * The head and tail are byte positions that only ever increase and use the same padded,
+ * cached and lazily set indices as {@link MechanicalSympathy.OneToOneQueue2Padded}. The
+ * producer encodes in place between {@link #claim(int, int)} and {@link #commit()}, and the
+ * consumer decodes through a {@link Record} flyweight so nothing is allocated per message.
+ */
+public final class RecordRingBuffer
+{
+   public static final int HEADER_LENGTH = 8;
+   public static final int ALIGNMENT = 8;
+   public static final int PADDING_TYPE_ID = -1;
+
+   public static interface RecordHandler
+   {
+      /**
+       * The record is only valid for the duration of the call.
+       */
+      public void onRecord(Record record);
+   }
+
+   /**
+    * A view of one record's body in the ring.
+    */
+   public static final class Record
+   {
+      private final ByteBuffer buffer;
+      private int typeId;
+      private int offset;
+      private int length;
+
+      private Record(ByteBuffer buffer)
+      {
+         this.buffer = buffer;
+      }
+
+      private void wrap(int typeId, int offset, int length)
+      {
+         this.typeId = typeId;
+         this.offset = offset;
+         this.length = length;
+      }
+
+      public final int typeId() { return typeId; }
+      public final int length() { return length; }
+
+      /**
+       * The body starts at offset() in buffer() and runs for length() bytes.
+       */
+      public final ByteBuffer buffer() { return buffer; }
+      public final int offset() { return offset; }
+
+      public final byte getByte(int index) { return buffer.get(offset + index); }
+      public final int getInt(int index) { return buffer.getInt(offset + index); }
+      public final long getLong(int index) { return buffer.getLong(offset + index); }
+   }
+
+   private final ByteBuffer buffer;
+   private final Record record;
+
+   private final PaddedAtomicLong tail = new PaddedAtomicLong(0);
+   private final PaddedAtomicLong head = new PaddedAtomicLong(0);
+
+   private final PaddedLong tailCache = new PaddedLong(); // used in read
+   private final PaddedLong headCache = new PaddedLong(); // used in claim
+
+   private final PaddedLong offerSideTailCache = new PaddedLong();
+   private final PaddedLong pollSideHeadCache = new PaddedLong();
+   private final PaddedLong claimedTail = new PaddedLong();
+
+   private final int bufferSize;
+   private final int indexMask;
+   private final int maxLength;
+
+   public RecordRingBuffer(int size)
+   {
+      if (Integer.bitCount(size) != 1 || size < 2 * HEADER_LENGTH)
+         throw new IllegalArgumentException("bufferSize must be a power of 2 of at least " + (2 * HEADER_LENGTH));
+
+      this.bufferSize = size;
+      this.indexMask = size - 1;
+      // half the buffer guarantees a record plus the padding in front of it always fits in an empty ring
+      this.maxLength = (size / 2) - HEADER_LENGTH;
+
+      buffer = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+      record = new Record(buffer);
+   }
+
+   public final int maxLength()
+   {
+      return maxLength;
+   }
+
+   /**
+    * The buffer to encode claimed records into.
+    */
+   public final ByteBuffer buffer()
+   {
+      return buffer;
+   }
+
+   private static int align(int length)
+   {
+      return (length + ALIGNMENT - 1) & ~(ALIGNMENT - 1);
+   }
+
+   /**
+    * Reserves room for a record and writes its header. The body goes in {@link #buffer()} at
+    * the returned offset and is published by {@link #commit()}. Returns -1 if the ring is too
+    * full. Only one claim can be outstanding at a time.
+    */
+   public final int claim(final int typeId, final int length)
+   {
+      if (typeId < 0)
+         throw new IllegalArgumentException("typeId must not be negative");
+      if (length < 0 || length > maxLength)
+         throw new IllegalArgumentException("length must be between 0 and " + maxLength);
+
+      final int recordLength = length + HEADER_LENGTH;
+      final int alignedLength = align(recordLength);
+
+      final long curTail = offerSideTailCache.value;
+      int index = (int)(curTail & indexMask);
+      final int toEnd = bufferSize - index;
+      final int padding = alignedLength > toEnd ? toEnd : 0;
+
+      final long wrapPoint = curTail + padding + alignedLength - bufferSize;
+      if (headCache.value < wrapPoint)
+      {
+         headCache.value = head.get();
+         if (headCache.value < wrapPoint)
+            return -1;
+      }
+
+      if (padding > 0)
+      {
+         buffer.putInt(index, padding);
+         buffer.putInt(index + 4, PADDING_TYPE_ID);
+         index = 0;
+      }
+
+      buffer.putInt(index, recordLength);
+      buffer.putInt(index + 4, typeId);
+
+      claimedTail.value = curTail + padding + alignedLength;
+      return index + HEADER_LENGTH;
+   }
+
+   public final void commit()
+   {
+      final long nextTail = claimedTail.value;
+      offerSideTailCache.value = nextTail;
+      tail.lazySet(nextTail); // StoreStore memory barrier
+   }
+
+   /**
+    * Hands up to limit records to the handler and then frees them all at once. Returns the
+    * number of records read.
+    */
+   public final int read(final RecordHandler handler, final int limit)
+   {
+      final long curHead = pollSideHeadCache.value;
+
+      if (curHead >= tailCache.value)
+      {
+         tailCache.value = tail.get();
+         if (curHead >= tailCache.value)
+            return 0;
+      }
+
+      final long available = tailCache.value;
+      long position = curHead;
+      int count = 0;
+      while (position < available && count < limit)
+      {
+         final int index = (int)(position & indexMask);
+         final int recordLength = buffer.getInt(index);
+         final int typeId = buffer.getInt(index + 4);
+         position += align(recordLength);
+
+         if (typeId != PADDING_TYPE_ID)
+         {
+            record.wrap(typeId, index + HEADER_LENGTH, recordLength - HEADER_LENGTH);
+            handler.onRecord(record);
+            count++;
+         }
+      }
+
+      pollSideHeadCache.value = position;
+      head.lazySet(position); // StoreStore memory barrier
+
+      return count;
+   }
+}
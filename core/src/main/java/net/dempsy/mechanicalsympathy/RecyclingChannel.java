@@ -0,0 +1,111 @@
+package net.dempsy.mechanicalsympathy;
+
+import java.util.function.Supplier;
+
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.OneToOneQueue2Padded;
+
+/**
+ * A single producer, single consumer channel of mutable messages that allocates nothing once
+ * it's built. It's two {@link OneToOneQueue2Padded} rings running in opposite directions. The
+ * forward ring carries filled messages to the consumer and the return ring carries them back
+ * to the producer to be filled again.
+ *
+ * Every message comes from the factory in the constructor, which makes one per slot and puts
+ * them all on the return ring. There are never more messages than slots in either ring, so
+ * {@link #publish(Object)} and {@link #release(Object)} can't find their ring full. When the
+ * consumer falls behind, the producer waits in {@link #claim()} for a message to come back.
+ *
+ * A message belongs to whoever claimed or received it until it's published or released. It
+ * mustn't be touched after that. The channel has to be built before the producer and consumer
+ * threads are started, because the constructor fills the return ring from the building thread.
+ *
+ * <pre>
+ * RecyclingChannel&lt;Message&gt; channel = new RecyclingChannel&lt;Message&gt;(Message::new, 1024, producerWait, consumerWait);
+ *
+ * // producer
+ * Message m = channel.claim();
+ * m.value = ...;
+ * channel.publish(m);
+ *
+ * // consumer
+ * Message m = channel.receive();
+ * ... use m ...
+ * channel.release(m);
+ * </pre>
+ */
+public final class RecyclingChannel<E>
+{
+   private final OneToOneQueue2Padded<E> forward;
+   private final OneToOneQueue2Padded<E> returns;
+
+   private final WaitStrategy producerWait;
+   private final WaitStrategy consumerWait;
+
+   /**
+    * The producer waits on producerWait when every message is in flight and the consumer waits
+    * on consumerWait when nothing has been published.
+    */
+   public RecyclingChannel(Supplier<E> factory, int size, WaitStrategy producerWait, WaitStrategy consumerWait)
+   {
+      forward = new OneToOneQueue2Padded<E>(size);
+      returns = new OneToOneQueue2Padded<E>(size);
+      this.producerWait = producerWait;
+      this.consumerWait = consumerWait;
+
+      if (returns.fill(factory, size) != size)
+         throw new IllegalStateException("couldn't preallocate " + size + " messages");
+   }
+
+   /**
+    * @return a message for the producer to fill, or null if every message is in flight.
+    */
+   public final E tryClaim()
+   {
+      return returns.poll();
+   }
+
+   /**
+    * @return a message for the producer to fill, waiting for one to be released if they're all
+    * in flight.
+    */
+   public final E claim()
+   {
+      return WaitStrategy.poll(returns, producerWait, consumerWait);
+   }
+
+   /**
+    * Hands a claimed message to the consumer.
+    */
+   public final void publish(final E message)
+   {
+      if (!forward.offer(message))
+         throw new IllegalStateException("published a message that wasn't claimed from this channel");
+      consumerWait.signal();
+   }
+
+   /**
+    * @return the next published message, or null if there isn't one.
+    */
+   public final E tryReceive()
+   {
+      return forward.poll();
+   }
+
+   /**
+    * @return the next published message, waiting for one if there isn't one.
+    */
+   public final E receive()
+   {
+      return WaitStrategy.poll(forward, consumerWait, producerWait);
+   }
+
+   /**
+    * Gives a received message back to the producer.
+    */
+   public final void release(final E message)
+   {
+      if (!returns.offer(message))
+         throw new IllegalStateException("released a message that wasn't received from this channel");
+      producerWait.signal();
+   }
+}
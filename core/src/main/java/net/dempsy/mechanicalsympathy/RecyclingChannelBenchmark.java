@@ -0,0 +1,226 @@
+package net.dempsy.mechanicalsympathy;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.OneToOneQueue2Padded;
+
+/**
+ * Mutable messages through a {@link RecyclingChannel} against allocating a new message for
+ * every send over a {@link OneToOneQueue2Padded}, one producer and one consumer each. Each run
+ * reports throughput and what {@link AllocationProbe} saw. With recycling the bytes per
+ * message on both sides should be zero and there should be no collections. Allocating puts a
+ * message's worth of bytes per op on the producer side and the collections that go with it.
+ *
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar net.dempsy.mechanicalsympathy.RecyclingChannelBenchmark -capacity 1024
+ * </pre>
+ */
+public class RecyclingChannelBenchmark
+{
+   /**
+    * Stands in for a real message, a few fields that are filled in for every send.
+    */
+   public static final class Message
+   {
+      public long sequence;
+      public long value;
+      public long timestamp;
+   }
+
+   private final int capacity;
+   private final int numMessages;
+   private final WaitStrategyType wait;
+
+   public RecyclingChannelBenchmark(int capacity, int numMessages, WaitStrategyType wait)
+   {
+      this.capacity = capacity;
+      this.numMessages = numMessages;
+      this.wait = wait;
+   }
+
+   private long expected()
+   {
+      final long[] values = MechanicalSympathy.primitiveValues;
+      final int mask = values.length - 1;
+      long ret = 0;
+      for (int i = 0; i < numMessages; i++)
+         ret += values[i & mask];
+      return ret;
+   }
+
+   /**
+    * @return the elapsed nanoseconds
+    */
+   public long recycling(final AllocationProbe probe) throws InterruptedException
+   {
+      final long[] values = MechanicalSympathy.primitiveValues;
+      final int mask = values.length - 1;
+      final RecyclingChannel<Message> channel = new RecyclingChannel<Message>(Message::new, capacity, wait.create(), wait.create());
+      final CountDownLatch latch = new CountDownLatch(1);
+      final long[] sum = new long[1];
+
+      Thread consumer = new Thread(new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            final long allocated = AllocationProbe.threadAllocatedBytes();
+            long total = 0;
+            for (int i = 0; i < numMessages; i++)
+            {
+               final Message m = channel.receive();
+               if (m.sequence != i)
+                  System.out.println("ERROR: " + m.sequence + " didn't match the expected value " + i);
+               total += m.value;
+               channel.release(m);
+            }
+            probe.addConsumerBytes(AllocationProbe.threadAllocatedBytes() - allocated);
+            sum[0] = total;
+            latch.countDown();
+         }
+      }, "consumer-recycling");
+
+      consumer.start();
+      Thread.sleep(100);
+
+      probe.begin();
+      final long startTime = System.nanoTime();
+      final long allocated = AllocationProbe.threadAllocatedBytes();
+      for (int i = 0; i < numMessages; i++)
+      {
+         final Message m = channel.claim();
+         m.sequence = i;
+         m.value = values[i & mask];
+         m.timestamp = startTime;
+         channel.publish(m);
+      }
+      probe.addProducerBytes(AllocationProbe.threadAllocatedBytes() - allocated);
+
+      latch.await();
+      final long endTime = System.nanoTime();
+      probe.end();
+      consumer.join();
+
+      if (sum[0] != expected())
+         System.out.println("ERROR: " + sum[0] + " didn't match the expected value " + expected());
+      return endTime - startTime;
+   }
+
+   /**
+    * @return the elapsed nanoseconds
+    */
+   public long allocating(final AllocationProbe probe) throws InterruptedException
+   {
+      final long[] values = MechanicalSympathy.primitiveValues;
+      final int mask = values.length - 1;
+      final OneToOneQueue2Padded<Message> q = new OneToOneQueue2Padded<Message>(capacity);
+      final WaitStrategy producerWait = wait.create();
+      final WaitStrategy consumerWait = wait.create();
+      final CountDownLatch latch = new CountDownLatch(1);
+      final long[] sum = new long[1];
+
+      Thread consumer = new Thread(new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            final long allocated = AllocationProbe.threadAllocatedBytes();
+            long total = 0;
+            for (int i = 0; i < numMessages; i++)
+            {
+               final Message m = WaitStrategy.poll(q, consumerWait, producerWait);
+               if (m.sequence != i)
+                  System.out.println("ERROR: " + m.sequence + " didn't match the expected value " + i);
+               total += m.value;
+            }
+            probe.addConsumerBytes(AllocationProbe.threadAllocatedBytes() - allocated);
+            sum[0] = total;
+            latch.countDown();
+         }
+      }, "consumer-allocating");
+
+      consumer.start();
+      Thread.sleep(100);
+
+      probe.begin();
+      final long startTime = System.nanoTime();
+      final long allocated = AllocationProbe.threadAllocatedBytes();
+      for (int i = 0; i < numMessages; i++)
+      {
+         final Message m = new Message();
+         m.sequence = i;
+         m.value = values[i & mask];
+         m.timestamp = startTime;
+         WaitStrategy.offer(q, m, producerWait, consumerWait);
+      }
+      probe.addProducerBytes(AllocationProbe.threadAllocatedBytes() - allocated);
+
+      latch.await();
+      final long endTime = System.nanoTime();
+      probe.end();
+      consumer.join();
+
+      if (sum[0] != expected())
+         System.out.println("ERROR: " + sum[0] + " didn't match the expected value " + expected());
+      return endTime - startTime;
+   }
+
+   public void runTests(final boolean recycling, final int runs) throws InterruptedException
+   {
+      final String prefix = String.format("%s %s", recycling ? "RecyclingChannel" : "allocate per message", wait);
+      final long[] results = new long[runs];
+      for (int run = 0; run < runs; run++)
+      {
+         final AllocationProbe probe = new AllocationProbe();
+         final long elapsed = recycling ? recycling(probe) : allocating(probe);
+         results[run] = (long)((double)numMessages * TimeUnit.SECONDS.toNanos(1) / elapsed);
+         System.out.format("%s %,d ops/sec %s%n", prefix, results[run], probe.format(numMessages));
+      }
+      System.out.format("%s %s%n", prefix, Statistics.of(results));
+   }
+
+   public static void main(String[] args) throws Throwable
+   {
+      int capacity = MechanicalSympathy.queueSize;
+      int numMessages = MechanicalSympathy.numIterations;
+      WaitStrategyType wait = WaitStrategyType.Yield;
+      int runs = MechanicalSympathy.numRuns;
+
+      for (int i = 0; i < args.length; i++)
+      {
+         final String arg = args[i];
+         if (i == args.length - 1)
+         {
+            usage();
+            return;
+         }
+         else if ("-capacity".equals(arg))
+            capacity = Integer.parseInt(args[++i]);
+         else if ("-messages".equals(arg))
+            numMessages = Integer.parseInt(args[++i]);
+         else if ("-wait".equals(arg))
+            wait = WaitStrategyType.valueOf(args[++i]);
+         else if ("-runs".equals(arg))
+            runs = Integer.parseInt(args[++i]);
+         else
+         {
+            usage();
+            return;
+         }
+      }
+
+      RecyclingChannelBenchmark o = new RecyclingChannelBenchmark(capacity, numMessages, wait);
+      o.runTests(true, runs);
+      o.runTests(false, runs);
+   }
+
+   public static void usage()
+   {
+      System.out.println("usage: java " + RecyclingChannelBenchmark.class.getName() + " [options]");
+      System.out.println("        -capacity n       ring size, which is also the number of recycled messages (default " + MechanicalSympathy.queueSize + ")");
+      System.out.println("        -messages n       messages per run (default " + MechanicalSympathy.numIterations + ")");
+      System.out.println("        -wait strategy    wait strategy for both sides (default Yield)");
+      System.out.println("        -runs n           runs of each channel (default " + MechanicalSympathy.numRuns + ")");
+   }
+}
@@ -0,0 +1,231 @@
+package net.dempsy.mechanicalsympathy;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Summarizes a result file written by {@link SweepRunner} or {@link LatencyBenchmark} and
+ * optionally compares it against a baseline file from an earlier run.
+ *
+ * Rows are grouped by every column that isn't a measurement or one of the
+ * {@link #informationalColumns}, so each queue and configuration gets its own {@link Statistics}
+ * for each metric. {@code ops_per_sec} is better when higher and the latency columns
+ * ({@code *_ns} other than {@code elapsed_ns}) are better when lower. A metric regresses when
+ * its median moves the wrong way by more than the threshold percent relative to the baseline
+ * median. The exit status is 1 if anything regressed and 2 if the input couldn't be read, so
+ * it can gate a nightly job.
+ *
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar net.dempsy.mechanicalsympathy.ResultAnalysis \
+ *     -baseline baseline.csv -threshold 5 nightly.csv
+ * </pre>
+ */
+public class ResultAnalysis
+{
+   public final static String runColumn = "run";
+   public final static String throughputColumn = "ops_per_sec";
+   public final static String elapsedColumn = "elapsed_ns";
+
+   // recorded with every run but neither compared nor part of the key
+   public final static List<String> informationalColumns = Arrays.asList(runColumn, elapsedColumn,
+         "producer_bytes_per_op", "consumer_bytes_per_op", "gc_count", "gc_time_ms", "heap_used_bytes");
+
+   public static final class Table
+   {
+      public final String[] header;
+      public final int[] metrics; // column indexes
+      public final Map<String, List<double[]>> groups = new LinkedHashMap<String, List<double[]>>(); // key -> metric values per run
+
+      private Table(String[] header)
+      {
+         this.header = header;
+         List<Integer> metrics = new ArrayList<Integer>();
+         for (int i = 0; i < header.length; i++)
+            if (isMetric(header[i]))
+               metrics.add(i);
+         this.metrics = new int[metrics.size()];
+         for (int i = 0; i < this.metrics.length; i++)
+            this.metrics[i] = metrics.get(i);
+      }
+
+      public double[] series(String key, int metric)
+      {
+         final List<double[]> rows = groups.get(key);
+         final double[] ret = new double[rows.size()];
+         for (int i = 0; i < ret.length; i++)
+            ret[i] = rows.get(i)[metric];
+         return ret;
+      }
+
+      public int metricIndex(String column)
+      {
+         for (int i = 0; i < metrics.length; i++)
+            if (header[metrics[i]].equals(column))
+               return i;
+         return -1;
+      }
+   }
+
+   public static boolean isMetric(String column)
+   {
+      return throughputColumn.equals(column) || (column.endsWith("_ns") && !elapsedColumn.equals(column));
+   }
+
+   public static boolean higherIsBetter(String column)
+   {
+      return throughputColumn.equals(column);
+   }
+
+   /**
+    * Reads a CSV result file. Rows come back grouped by key in the order they were run.
+    */
+   public static Table read(String file) throws IOException
+   {
+      try (BufferedReader in = new BufferedReader(new FileReader(file)))
+      {
+         String line = in.readLine();
+         if (line == null)
+            throw new IOException(file + " is empty");
+
+         final Table table = new Table(line.trim().split(","));
+         if (table.metrics.length == 0)
+            throw new IOException(file + " has no " + throughputColumn + " or latency columns");
+
+         int lineNumber = 1;
+         while ((line = in.readLine()) != null)
+         {
+            lineNumber++;
+            if (line.trim().isEmpty())
+               continue;
+
+            final String[] values = line.trim().split(",");
+            if (values.length != table.header.length)
+               throw new IOException(file + ":" + lineNumber + " has " + values.length + " columns but the header has " + table.header.length);
+
+            StringBuilder key = new StringBuilder();
+            for (int i = 0; i < values.length; i++)
+               if (!isMetric(table.header[i]) && !informationalColumns.contains(table.header[i]))
+                  key.append(key.length() == 0 ? "" : " ").append(table.header[i]).append('=').append(values[i]);
+
+            final double[] metrics = new double[table.metrics.length];
+            try
+            {
+               for (int i = 0; i < metrics.length; i++)
+                  metrics[i] = Double.parseDouble(values[table.metrics[i]]);
+            }
+            catch (NumberFormatException e)
+            {
+               throw new IOException(file + ":" + lineNumber + " " + e.getMessage());
+            }
+
+            List<double[]> rows = table.groups.get(key.toString());
+            if (rows == null)
+               table.groups.put(key.toString(), rows = new ArrayList<double[]>());
+            rows.add(metrics);
+         }
+         return table;
+      }
+   }
+
+   /**
+    * Prints the statistics for every group and metric and, if there's a baseline, flags each
+    * metric whose median regressed by more than thresholdPercent. Returns the number of
+    * regressions.
+    */
+   public static int analyze(Table current, Table baseline, double thresholdPercent)
+   {
+      int regressions = 0;
+      for (String key : current.groups.keySet())
+      {
+         System.out.println(key);
+         for (int m = 0; m < current.metrics.length; m++)
+         {
+            final String column = current.header[current.metrics[m]];
+            final Statistics stats = Statistics.of(current.series(key, m));
+            System.out.format("   %-12s %s%n", column, stats);
+
+            if (baseline == null)
+               continue;
+
+            final int bm = baseline.metricIndex(column);
+            if (bm < 0 || !baseline.groups.containsKey(key))
+            {
+               System.out.format("   %-12s no baseline%n", column);
+               continue;
+            }
+
+            final Statistics base = Statistics.of(baseline.series(key, bm));
+            final double change = base.median == 0.0 ? 0.0 : ((stats.median - base.median) * 100.0) / base.median;
+            final boolean regressed = higherIsBetter(column) ? change < -thresholdPercent : change > thresholdPercent;
+            System.out.format("   %-12s baseline median %,.0f change %+.2f%%%s%n", column, base.median, change, regressed ? " REGRESSION" : "");
+            if (regressed)
+               regressions++;
+         }
+      }
+      return regressions;
+   }
+
+   public static void main(String[] args) throws Throwable
+   {
+      String baselineFile = null;
+      double threshold = 5.0;
+      String file = null;
+
+      for (int i = 0; i < args.length; i++)
+      {
+         final String arg = args[i];
+         if ("-baseline".equals(arg) && i < args.length - 1)
+            baselineFile = args[++i];
+         else if ("-threshold".equals(arg) && i < args.length - 1)
+            threshold = Double.parseDouble(args[++i]);
+         else if (i == args.length - 1 && !arg.startsWith("-"))
+            file = arg;
+         else
+         {
+            usage();
+            System.exit(2);
+         }
+      }
+
+      if (file == null)
+      {
+         usage();
+         System.exit(2);
+      }
+
+      final Table current;
+      final Table baseline;
+      try
+      {
+         current = read(file);
+         baseline = baselineFile == null ? null : read(baselineFile);
+      }
+      catch (IOException e)
+      {
+         System.out.println("ERROR: " + e.getMessage());
+         System.exit(2);
+         return;
+      }
+
+      final int regressions = analyze(current, baseline, threshold);
+      if (baseline != null)
+         System.out.format("%d regression%s beyond %.2f%% of %s%n", regressions, regressions == 1 ? "" : "s", threshold, baselineFile);
+      if (regressions > 0)
+         System.exit(1);
+   }
+
+   public static void usage()
+   {
+      System.out.println("usage: java " + ResultAnalysis.class.getName() + " [-baseline file] [-threshold percent] results.csv");
+      System.out.println("        -baseline file        compare medians against an earlier result file and exit 1 on a regression");
+      System.out.println("        -threshold percent    how far a median may move the wrong way (default 5)");
+      System.out.println("      metrics are " + throughputColumn + " (higher is better) and latency columns ending in _ns (lower is better)");
+      System.out.println("      every other column but " + informationalColumns + " identifies the configuration");
+   }
+}
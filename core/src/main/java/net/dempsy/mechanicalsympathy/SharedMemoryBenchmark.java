@@ -0,0 +1,93 @@
+package net.dempsy.mechanicalsympathy;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Two process throughput and latency over a {@link SharedMemoryLongQueue}. This process
+ * creates the queue and produces, and it launches a second JVM with the same classpath to
+ * consume. Each message is the producer's {@link System#nanoTime()}, which on Linux is
+ * CLOCK_MONOTONIC and so comparable between processes on the same box. The consumer reports
+ * the results.
+ */
+public class SharedMemoryBenchmark
+{
+   public static final int numMessages = MechanicalSympathy.numIterations;
+   public static final int numWarmup = 1024 * 1024;
+
+   public static File defaultFile()
+   {
+      final File shm = new File("/dev/shm");
+      final File dir = shm.isDirectory() ? shm : new File(System.getProperty("java.io.tmpdir"));
+      return new File(dir, "mechanicalsympathy-" + ProcessHandle.current().pid() + ".queue");
+   }
+
+   public static void produce(final File path, final int capacity) throws Throwable
+   {
+      final SharedMemoryLongQueue q = SharedMemoryLongQueue.create(path, capacity);
+      try
+      {
+         final String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+         final Process consumer = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+               SharedMemoryBenchmark.class.getName(), "consume", path.getPath())
+               .inheritIO().start();
+
+         while (!q.isAttached())
+         {
+            if (!consumer.isAlive())
+               throw new IllegalStateException("The consumer process exited with " + consumer.exitValue() + " before attaching");
+            Thread.sleep(10);
+         }
+
+         final int total = numWarmup + numMessages;
+         for (int i = 0; i < total; i++)
+         {
+            final long timestamp = System.nanoTime();
+            while (!q.offer(timestamp)) Thread.yield();
+         }
+
+         if (consumer.waitFor() != 0)
+            System.out.println("ERROR: the consumer process exited with " + consumer.exitValue());
+      }
+      finally
+      {
+         q.close();
+         path.delete();
+      }
+   }
+
+   public static void consume(final File path) throws Throwable
+   {
+      final Histogram histogram = new Histogram(LatencyBenchmark.highestTrackableLatency, 3);
+      try (SharedMemoryLongQueue q = SharedMemoryLongQueue.open(path))
+      {
+         final int total = numWarmup + numMessages;
+         long startTime = 0;
+         long sent;
+         for (int i = 0; i < total; i++)
+         {
+            if (i == numWarmup)
+               startTime = System.nanoTime();
+            while ((sent = q.poll()) == SharedMemoryLongQueue.EMPTY) Thread.yield();
+            if (i >= numWarmup)
+               histogram.recordValue(Math.min(System.nanoTime() - sent, LatencyBenchmark.highestTrackableLatency));
+         }
+         final long endTime = System.nanoTime();
+
+         final long opsPerSec = (long)((double)numMessages * TimeUnit.SECONDS.toNanos(1) / (endTime - startTime));
+         System.out.println(LatencyBenchmark.format(String.format("Shared Memory %,d ops/sec", opsPerSec), histogram));
+      }
+   }
+
+   public static void main(String[] args) throws Throwable
+   {
+      if (args.length == 2 && "consume".equals(args[0]))
+         consume(new File(args[1]));
+      else if (args.length <= 1)
+         produce(args.length == 1 ? new File(args[0]) : defaultFile(), MechanicalSympathy.queueSize);
+      else
+         System.out.println("usage: java " + SharedMemoryBenchmark.class.getName() + " [queue file]");
+   }
+}
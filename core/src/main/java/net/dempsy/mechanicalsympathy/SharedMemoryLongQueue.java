@@ -0,0 +1,154 @@
+package net.dempsy.mechanicalsympathy;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.PaddedLong;
+
+/**
+ * {@link MechanicalSympathy.OneToOneLongQueue2Padded} laid out in a memory mapped file so the
+ * producer and the consumer can be in different processes. Put the file on /dev/shm so it's
+ * never written back to a disk.
+ *
+ * The head and tail each get their own pair of cache lines in the file and are published with
+ * release stores and read with acquire loads through a {@link VarHandle} view of the buffer.
+ * The caches of the other side's index are per-process so they stay on the heap.
+ *
+ * <pre>
+ *   0   capacity (written last by create so open can tell the file is ready)
+ *   8   attached (set by open so the creator can tell the other side is there)
+ *   128 tail
+ *   256 head
+ *   384 slots
+ * </pre>
+ */
+public final class SharedMemoryLongQueue implements Closeable
+{
+   public static final long EMPTY = Long.MIN_VALUE;
+
+   private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+   private static final int CAPACITY_OFFSET = 0;
+   private static final int ATTACHED_OFFSET = 8;
+   private static final int TAIL_OFFSET = 128;
+   private static final int HEAD_OFFSET = 256;
+   private static final int SLOTS_OFFSET = 384;
+
+   private final RandomAccessFile file;
+   private final MappedByteBuffer buffer;
+
+   private final PaddedLong tailCache = new PaddedLong(); // used in poll
+   private final PaddedLong headCache = new PaddedLong(); // used in offer
+
+   private final PaddedLong offerSideTailCache = new PaddedLong();
+   private final PaddedLong pollSideHeadCache = new PaddedLong();
+
+   private final int bufferSize;
+   private final int indexMask;
+
+   private SharedMemoryLongQueue(RandomAccessFile file, MappedByteBuffer buffer, int size)
+   {
+      this.file = file;
+      this.buffer = buffer;
+      this.bufferSize = size;
+      this.indexMask = size - 1;
+
+      buffer.order(ByteOrder.nativeOrder());
+      offerSideTailCache.value = tailCache.value = (long)LONGS.getAcquire(buffer, TAIL_OFFSET);
+      pollSideHeadCache.value = headCache.value = (long)LONGS.getAcquire(buffer, HEAD_OFFSET);
+   }
+
+   /**
+    * Creates (or resets) the queue file. Nothing else should have it open.
+    */
+   public static SharedMemoryLongQueue create(File path, int size) throws IOException
+   {
+      if (Integer.bitCount(size) != 1)
+         throw new IllegalArgumentException("bufferSize must be a power of 2");
+
+      final RandomAccessFile file = new RandomAccessFile(path, "rw");
+      file.setLength(0); // zero everything, including a previous capacity
+      file.setLength(SLOTS_OFFSET + ((long)size * 8L));
+      final MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, file.length());
+      LONGS.setRelease(buffer, CAPACITY_OFFSET, (long)size);
+      return new SharedMemoryLongQueue(file, buffer, size);
+   }
+
+   /**
+    * Attaches to a queue file that was made with {@link #create(File, int)}.
+    */
+   public static SharedMemoryLongQueue open(File path) throws IOException
+   {
+      final RandomAccessFile file = new RandomAccessFile(path, "rw");
+      final MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, file.length());
+      final long size = file.length() < SLOTS_OFFSET ? 0 : (long)LONGS.getAcquire(buffer, CAPACITY_OFFSET);
+      if (size == 0 || SLOTS_OFFSET + (size * 8L) != file.length())
+      {
+         file.close();
+         throw new IOException("\"" + path + "\" isn't an initialized queue file");
+      }
+
+      LONGS.setRelease(buffer, ATTACHED_OFFSET, 1L);
+      return new SharedMemoryLongQueue(file, buffer, (int)size);
+   }
+
+   public final boolean isAttached()
+   {
+      return (long)LONGS.getAcquire(buffer, ATTACHED_OFFSET) != 0;
+   }
+
+   public final boolean offer(final long o)
+   {
+      final long curTail = offerSideTailCache.value;
+      final long wrapPoint = curTail - bufferSize;
+
+      if (headCache.value <= wrapPoint)
+      {
+         headCache.value = (long)LONGS.getAcquire(buffer, HEAD_OFFSET);
+         if (headCache.value <= wrapPoint)
+            return false;
+      }
+
+      buffer.putLong(SLOTS_OFFSET + ((int)(curTail & indexMask) << 3), o);
+
+      final long nextTail = curTail + 1;
+      offerSideTailCache.value = nextTail;
+      LONGS.setRelease(buffer, TAIL_OFFSET, nextTail);
+
+      return true;
+   }
+
+   public final long poll()
+   {
+      final long curHead = pollSideHeadCache.value;
+
+      if (curHead >= tailCache.value)
+      {
+         tailCache.value = (long)LONGS.getAcquire(buffer, TAIL_OFFSET);
+         if (curHead >= tailCache.value)
+            return EMPTY;
+      }
+
+      final long ret = buffer.getLong(SLOTS_OFFSET + ((int)(curHead & indexMask) << 3));
+
+      final long nextHead = curHead + 1;
+      pollSideHeadCache.value = nextHead;
+      LONGS.setRelease(buffer, HEAD_OFFSET, nextHead);
+
+      return ret;
+   }
+
+   @Override
+   public void close() throws IOException
+   {
+      // the mapping itself goes away when the buffer is collected
+      file.close();
+   }
+}
@@ -0,0 +1,127 @@
+package net.dempsy.mechanicalsympathy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Summary statistics for a series of benchmark runs given in the order they were run.
+ *
+ * The leading runs are treated as warmup and dropped while they're more than 3 robust standard
+ * deviations (1.4826 * the median absolute deviation) from the median of the second half of the
+ * series, which is taken to be steady state. At most half the runs are dropped. Outliers among
+ * the rest are flagged with Tukey's fences (1.5 times the interquartile range beyond the
+ * quartiles) but kept.
+ */
+public final class Statistics
+{
+   // two sided 97.5% Student's t for 1 to 30 degrees of freedom
+   private final static double[] t975 = { 12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+         2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+         2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042 };
+
+   public final int count;
+   public final int warmup;
+   public final double median;
+   public final double mean;
+   public final double stddev;
+   public final double confidence95; // half width of the 95% confidence interval of the mean
+   public final int[] outliers; // run indexes into the original series
+
+   private Statistics(int count, int warmup, double median, double mean, double stddev, double confidence95, int[] outliers)
+   {
+      this.count = count;
+      this.warmup = warmup;
+      this.median = median;
+      this.mean = mean;
+      this.stddev = stddev;
+      this.confidence95 = confidence95;
+      this.outliers = outliers;
+   }
+
+   public static double median(double[] values)
+   {
+      return percentile(values, 50.0);
+   }
+
+   private static double percentile(double[] values, double percentile)
+   {
+      final double[] sorted = values.clone();
+      Arrays.sort(sorted);
+      final double rank = (percentile / 100.0) * (sorted.length - 1);
+      final int lower = (int)Math.floor(rank);
+      final int upper = (int)Math.ceil(rank);
+      return sorted[lower] + ((rank - lower) * (sorted[upper] - sorted[lower]));
+   }
+
+   public static int warmupRuns(double[] runs)
+   {
+      if (runs.length < 4)
+         return 0;
+
+      final double[] steady = Arrays.copyOfRange(runs, runs.length / 2, runs.length);
+      final double median = median(steady);
+      final double[] deviations = new double[steady.length];
+      for (int i = 0; i < steady.length; i++)
+         deviations[i] = Math.abs(steady[i] - median);
+      double tolerance = 3.0 * 1.4826 * median(deviations);
+      if (tolerance == 0.0)
+         tolerance = Math.abs(median) * 0.01;
+
+      int warmup = 0;
+      while (warmup < runs.length / 2 && Math.abs(runs[warmup] - median) > tolerance)
+         warmup++;
+      return warmup;
+   }
+
+   public static Statistics of(double[] runs)
+   {
+      if (runs.length == 0)
+         throw new IllegalArgumentException("No runs to summarize");
+
+      final int warmup = warmupRuns(runs);
+      final double[] values = Arrays.copyOfRange(runs, warmup, runs.length);
+      final int n = values.length;
+
+      double sum = 0;
+      for (double value : values)
+         sum += value;
+      final double mean = sum / n;
+
+      double squares = 0;
+      for (double value : values)
+         squares += (value - mean) * (value - mean);
+      final double stddev = n > 1 ? Math.sqrt(squares / (n - 1)) : 0.0;
+      final double t = n > 1 ? (n - 1 <= t975.length ? t975[n - 2] : 1.96) : 0.0;
+
+      final double q1 = percentile(values, 25.0);
+      final double q3 = percentile(values, 75.0);
+      final double iqr = q3 - q1;
+      List<Integer> outliers = new ArrayList<Integer>();
+      for (int i = 0; i < n; i++)
+         if (values[i] < q1 - (1.5 * iqr) || values[i] > q3 + (1.5 * iqr))
+            outliers.add(i + warmup);
+
+      final int[] outlierRuns = new int[outliers.size()];
+      for (int i = 0; i < outlierRuns.length; i++)
+         outlierRuns[i] = outliers.get(i);
+
+      return new Statistics(n, warmup, median(values), mean, stddev, t * stddev / Math.sqrt(n), outlierRuns);
+   }
+
+   public static Statistics of(long[] runs)
+   {
+      final double[] values = new double[runs.length];
+      for (int i = 0; i < runs.length; i++)
+         values[i] = runs[i];
+      return of(values);
+   }
+
+   @Override
+   public String toString()
+   {
+      return String.format("Median: %,.0f Mean: %,.0f +/- %,.0f (95%%) StdDev: %,.0f over %d runs after %d warmup%s",
+            median, mean, confidence95, stddev, count, warmup,
+            outliers.length > 0 ? " outlier runs " + Arrays.toString(outliers) : "");
+   }
+}
@@ -0,0 +1,340 @@
+package net.dempsy.mechanicalsympathy;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.SimpleQueue;
+
+/**
+ * Runs the full cartesian product of queue types, capacities, message counts, producer and
+ * consumer counts, each for a number of runs, and writes one record per run as CSV and/or
+ * JSON. Combinations a queue can't support (more than one producer on a single producer
+ * queue, a capacity it won't take) are skipped.
+ *
+ * Lists are comma separated and a range like 64..1048576 doubles from the first value to the
+ * last, which is the easy way to watch a ring grow past the L1, L2 and L3 caches.
+ *
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar net.dempsy.mechanicalsympathy.SweepRunner \
+ *     -queues OneToOneQueue2Padded,ArrayBlockingQueue -capacities 64..1048576 -runs 5 -csv sweep.csv
+ * </pre>
+ */
+public class SweepRunner
+{
+   public final static String[] columns = { "queue", "capacity", "messages", "producers", "consumers", "wait", "run", "elapsed_ns", "ops_per_sec",
+         "producer_bytes_per_op", "consumer_bytes_per_op", "gc_count", "gc_time_ms", "heap_used_bytes" };
+
+   // a fixed pool of boxed values so the messages don't allocate
+   private final static int valuePoolSize = 1024 * 1024;
+   private final static Long[] valuePool = new Long[valuePoolSize];
+   static
+   {
+      Random r = new Random();
+      for (int i = 0; i < valuePoolSize; i++)
+         valuePool[i] = r.nextLong();
+   }
+
+   public static final class Result
+   {
+      public final QueueType queue;
+      public final int capacity;
+      public final int messages;
+      public final int producers;
+      public final int consumers;
+      public final WaitStrategyType wait;
+      public final int run;
+      public final long elapsedNanos;
+      public final AllocationProbe allocation;
+
+      public Result(QueueType queue, int capacity, int messages, int producers, int consumers, WaitStrategyType wait, int run, long elapsedNanos,
+            AllocationProbe allocation)
+      {
+         this.queue = queue;
+         this.capacity = capacity;
+         this.messages = messages;
+         this.producers = producers;
+         this.consumers = consumers;
+         this.wait = wait;
+         this.run = run;
+         this.elapsedNanos = elapsedNanos;
+         this.allocation = allocation;
+      }
+
+      public long opsPerSecond()
+      {
+         return (long)((double)messages * 1000000000.0 / elapsedNanos);
+      }
+
+      public Object[] values()
+      {
+         return new Object[] { queue, capacity, messages, producers, consumers, wait, run, elapsedNanos, opsPerSecond(),
+               allocation.producerBytesPerOp(messages), allocation.consumerBytesPerOp(messages), allocation.gcCount, allocation.gcTimeMillis,
+               allocation.heapUsedBytes };
+      }
+   }
+
+   private static long expectedSum(int messages)
+   {
+      long sum = 0;
+      for (int i = 0; i < messages; i++)
+         sum += valuePool[i & (valuePoolSize - 1)];
+      return sum;
+   }
+
+   /**
+    * Sends messages from the producers to the consumers through a new queue. Each producer
+    * sends every producers'th message and each consumer takes a fixed share.
+    */
+   public static Result run(final QueueType type, final int capacity, final int messages, final int producers, final int consumers,
+         final WaitStrategyType wait, final int run) throws InterruptedException
+   {
+      final SimpleQueue<Long> q = type.create(capacity);
+      final WaitStrategy producerWait = wait.create();
+      final WaitStrategy consumerWait = wait.create();
+      final CountDownLatch startLatch = new CountDownLatch(1);
+      final CountDownLatch latch = new CountDownLatch(consumers);
+      final AtomicLong valueSum = new AtomicLong();
+      final AllocationProbe probe = new AllocationProbe();
+      final List<Thread> threads = new ArrayList<Thread>();
+
+      for (int c = 0; c < consumers; c++)
+      {
+         final int count = (messages / consumers) + (c < (messages % consumers) ? 1 : 0);
+         threads.add(new Thread(new Runnable()
+         {
+            @Override
+            public void run()
+            {
+               final long allocated = AllocationProbe.threadAllocatedBytes();
+               long sum = 0;
+               for (int i = 0; i < count; i++)
+                  sum += WaitStrategy.poll(q, consumerWait, producerWait);
+               probe.addConsumerBytes(AllocationProbe.threadAllocatedBytes() - allocated);
+               valueSum.addAndGet(sum);
+               latch.countDown();
+            }
+         }));
+      }
+
+      for (int p = 0; p < producers; p++)
+      {
+         final int first = p;
+         threads.add(new Thread(new Runnable()
+         {
+            @Override
+            public void run()
+            {
+               try { startLatch.await(); } catch (InterruptedException e) { return; }
+               final long allocated = AllocationProbe.threadAllocatedBytes();
+               for (int i = first; i < messages; i += producers)
+                  WaitStrategy.offer(q, valuePool[i & (valuePoolSize - 1)], producerWait, consumerWait);
+               probe.addProducerBytes(AllocationProbe.threadAllocatedBytes() - allocated);
+            }
+         }));
+      }
+
+      for (Thread thread : threads)
+         thread.start();
+      Thread.sleep(100);
+
+      probe.begin();
+      final long startTime = System.nanoTime();
+      startLatch.countDown();
+      latch.await();
+      final long endTime = System.nanoTime();
+      probe.end();
+
+      for (Thread thread : threads)
+         thread.join();
+
+      if (valueSum.get() != expectedSum(messages))
+         System.out.println("ERROR: " + valueSum.get() + " didn't match the expected value " + expectedSum(messages));
+
+      return new Result(type, capacity, messages, producers, consumers, wait, run, endTime - startTime, probe);
+   }
+
+   //=====================================================================================
+
+   public static void writeCsv(List<Result> results, String file) throws IOException
+   {
+      try (PrintWriter out = new PrintWriter(new FileWriter(file)))
+      {
+         out.println(String.join(",", columns));
+         for (Result result : results)
+         {
+            final Object[] values = result.values();
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < values.length; i++)
+               sb.append(i == 0 ? "" : ",").append(values[i]);
+            out.println(sb);
+         }
+      }
+   }
+
+   public static void writeJson(List<Result> results, String file) throws IOException
+   {
+      try (PrintWriter out = new PrintWriter(new FileWriter(file)))
+      {
+         out.println("[");
+         for (int r = 0; r < results.size(); r++)
+         {
+            final Object[] values = results.get(r).values();
+            StringBuilder sb = new StringBuilder("  { ");
+            for (int i = 0; i < values.length; i++)
+            {
+               sb.append(i == 0 ? "" : ", ").append('"').append(columns[i]).append("\": ");
+               if (values[i] instanceof Number)
+                  sb.append(values[i]);
+               else
+                  sb.append('"').append(values[i]).append('"');
+            }
+            out.println(sb.append(r == results.size() - 1 ? " }" : " },"));
+         }
+         out.println("]");
+      }
+   }
+
+   //=====================================================================================
+
+   /**
+    * Parses a comma separated list of values and ranges like 64..1048576 that double each step.
+    *
+    * @return the values, or null if a range starts below 1, since it would never get past its
+    * start, or ends before it starts.
+    */
+   public static List<Integer> parseInts(String arg)
+   {
+      List<Integer> ret = new ArrayList<Integer>();
+      for (String item : arg.split(","))
+      {
+         final int range = item.indexOf("..");
+         if (range < 0)
+            ret.add(Integer.parseInt(item));
+         else
+         {
+            final long first = Long.parseLong(item.substring(0, range));
+            final long last = Long.parseLong(item.substring(range + 2));
+            if (first < 1 || last < first)
+               return null;
+            for (long cur = first; cur <= last; cur *= 2)
+               ret.add((int)cur);
+         }
+      }
+      return ret;
+   }
+
+   public static void main(String[] args) throws Throwable
+   {
+      List<QueueType> queues = new ArrayList<QueueType>();
+      List<Integer> capacities = parseInts(Integer.toString(MechanicalSympathy.queueSize));
+      List<Integer> messageCounts = parseInts(Integer.toString(MechanicalSympathy.numIterations));
+      List<Integer> producerCounts = parseInts("1");
+      List<Integer> consumerCounts = parseInts("1");
+      WaitStrategyType wait = WaitStrategyType.Yield;
+      int runs = MechanicalSympathy.numRuns;
+      String csv = null;
+      String json = null;
+
+      for (int i = 0; i < args.length; i++)
+      {
+         final String arg = args[i];
+         if (i == args.length - 1)
+         {
+            usage();
+            return;
+         }
+         else if ("-queues".equals(arg))
+         {
+            for (String queue : args[++i].split(","))
+               queues.add(QueueType.valueOf(queue));
+         }
+         else if ("-capacities".equals(arg))
+            capacities = parseInts(args[++i]);
+         else if ("-messages".equals(arg))
+            messageCounts = parseInts(args[++i]);
+         else if ("-producers".equals(arg))
+            producerCounts = parseInts(args[++i]);
+         else if ("-consumers".equals(arg))
+            consumerCounts = parseInts(args[++i]);
+         else if ("-wait".equals(arg))
+            wait = WaitStrategyType.valueOf(args[++i]);
+         else if ("-runs".equals(arg))
+            runs = Integer.parseInt(args[++i]);
+         else if ("-csv".equals(arg))
+            csv = args[++i];
+         else if ("-json".equals(arg))
+            json = args[++i];
+         else
+         {
+            usage();
+            return;
+         }
+      }
+
+      if (capacities == null || messageCounts == null || producerCounts == null || consumerCounts == null)
+      {
+         usage();
+         return;
+      }
+      if (queues.isEmpty())
+         for (QueueType type : QueueType.values())
+            queues.add(type);
+
+      List<Result> results = new ArrayList<Result>();
+      for (QueueType queue : queues)
+         for (int capacity : capacities)
+            for (int messages : messageCounts)
+               for (int producers : producerCounts)
+                  for (int consumers : consumerCounts)
+                  {
+                     final String prefix = String.format("%s capacity=%d messages=%d %dP x %dC", queue, capacity, messages, producers, consumers);
+                     if ((producers > 1 && !queue.multiProducer) || (consumers > 1 && !queue.multiConsumer))
+                     {
+                        System.out.println(prefix + " skipped: not supported by the queue");
+                        continue;
+                     }
+                     try
+                     {
+                        queue.create(capacity);
+                     }
+                     catch (IllegalArgumentException e)
+                     {
+                        System.out.println(prefix + " skipped: " + e.getMessage());
+                        continue;
+                     }
+
+                     for (int run = 0; run < runs; run++)
+                     {
+                        final Result result = run(queue, capacity, messages, producers, consumers, wait, run);
+                        System.out.format("%s run %d %,d ops/sec %s%n", prefix, run, result.opsPerSecond(), result.allocation.format(messages));
+                        results.add(result);
+                     }
+                  }
+
+      if (csv != null)
+         writeCsv(results, csv);
+      if (json != null)
+         writeJson(results, json);
+   }
+
+   public static void usage()
+   {
+      System.out.println("usage: java " + SweepRunner.class.getName() + " [options]");
+      System.out.println("        -queues q[,q...]      queue types (default all)");
+      System.out.println("        -capacities list      queue capacities (default " + MechanicalSympathy.queueSize + ")");
+      System.out.println("        -messages list        messages per run (default " + MechanicalSympathy.numIterations + ")");
+      System.out.println("        -producers list       producer thread counts (default 1)");
+      System.out.println("        -consumers list       consumer thread counts (default 1)");
+      System.out.println("        -wait strategy        wait strategy for both sides (default Yield)");
+      System.out.println("        -runs n               runs of each combination (default " + MechanicalSympathy.numRuns + ")");
+      System.out.println("        -csv file             write the results as CSV");
+      System.out.println("        -json file            write the results as JSON");
+      System.out.println("      a list is comma separated values and/or ranges like 64..1048576 that double each step from a start of at least 1");
+   }
+}
@@ -0,0 +1,168 @@
+package net.dempsy.mechanicalsympathy;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.SimpleQueue;
+
+/**
+ * {@link OneToOneLinkedArrayQueue} against {@link java.util.concurrent.ConcurrentLinkedQueue},
+ * the two unbounded queues, with one producer and one consumer. Under steady load the producer
+ * sends continuously. Under bursty load it sends a burst as fast as it can and then parks for
+ * a while, so the queue backs up well past one chunk and then drains. Each run reports
+ * throughput, allocation per message on each side and collections along with the chunks the
+ * linked array queue had to allocate.
+ *
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar net.dempsy.mechanicalsympathy.UnboundedQueueBenchmark \
+ *     -chunk 1024 -burst 100000 -pause 1000
+ * </pre>
+ */
+public class UnboundedQueueBenchmark
+{
+   private final int numMessages;
+
+   public UnboundedQueueBenchmark(int numMessages)
+   {
+      this.numMessages = numMessages;
+   }
+
+   /**
+    * Sends numMessages through q in bursts of burst messages with the producer parked for
+    * pauseNanos between them. A burst of 1 with no pause is steady load.
+    *
+    * @return the elapsed nanoseconds
+    */
+   public long run(final SimpleQueue<Long> q, final int burst, final long pauseNanos, final AllocationProbe probe) throws InterruptedException
+   {
+      final Long[] values = MechanicalSympathy.values;
+      final int mask = values.length - 1;
+      final CountDownLatch latch = new CountDownLatch(1);
+      final AtomicLong valueSum = new AtomicLong();
+
+      Thread consumer = new Thread(new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            final long allocated = AllocationProbe.threadAllocatedBytes();
+            long sum = 0;
+            Long cur;
+            for (int i = 0; i < numMessages; i++)
+            {
+               while ((cur = q.poll()) == null) Thread.yield();
+               sum += cur;
+            }
+            probe.addConsumerBytes(AllocationProbe.threadAllocatedBytes() - allocated);
+            valueSum.set(sum);
+            latch.countDown();
+         }
+      });
+
+      consumer.start();
+      Thread.sleep(100);
+
+      probe.begin();
+      final long startTime = System.nanoTime();
+
+      final long allocated = AllocationProbe.threadAllocatedBytes();
+      long expected = 0;
+      for (int i = 0; i < numMessages; i++)
+      {
+         final Long value = values[i & mask];
+         expected += value;
+         while (!q.offer(value)) Thread.yield(); // never spins for the unbounded queues
+         if (pauseNanos > 0 && (i % burst) == burst - 1)
+            LockSupport.parkNanos(pauseNanos);
+      }
+      probe.addProducerBytes(AllocationProbe.threadAllocatedBytes() - allocated);
+
+      latch.await();
+      final long endTime = System.nanoTime();
+      probe.end();
+      consumer.join();
+
+      if (valueSum.get() != expected)
+         System.out.println("ERROR: " + valueSum.get() + " didn't match the expected value " + expected);
+
+      return endTime - startTime;
+   }
+
+   public void runTests(final QueueType type, final int chunkSize, final String load, final int burst, final long pauseNanos, final int runs)
+         throws InterruptedException
+   {
+      final String prefix = String.format("%s %s", type, load);
+      final long[] results = new long[runs];
+      for (int run = 0; run < runs; run++)
+      {
+         final SimpleQueue<Long> q = type.create(chunkSize);
+         final AllocationProbe probe = new AllocationProbe();
+         final long elapsed = run(q, burst, pauseNanos, probe);
+         results[run] = (long)((double)numMessages * TimeUnit.SECONDS.toNanos(1) / elapsed);
+         System.out.format("%s %,d ops/sec %s%s%n", prefix, results[run], probe.format(numMessages),
+               q instanceof OneToOneLinkedArrayQueue ? " chunks " + ((OneToOneLinkedArrayQueue<?>)q).chunksAllocated() : "");
+      }
+      System.out.format("%s %s%n", prefix, Statistics.of(results));
+   }
+
+   public static void main(String[] args) throws Throwable
+   {
+      int numMessages = MechanicalSympathy.numIterations;
+      int chunkSize = 1024;
+      int burst = 100000;
+      long pauseMicros = 1000;
+      int runs = MechanicalSympathy.numRuns;
+
+      for (int i = 0; i < args.length; i++)
+      {
+         final String arg = args[i];
+         if (i == args.length - 1)
+         {
+            usage();
+            return;
+         }
+         else if ("-messages".equals(arg))
+            numMessages = Integer.parseInt(args[++i]);
+         else if ("-chunk".equals(arg))
+            chunkSize = Integer.parseInt(args[++i]);
+         else if ("-burst".equals(arg))
+         {
+            burst = Integer.parseInt(args[++i]);
+            if (burst < 1)
+            {
+               usage();
+               return;
+            }
+         }
+         else if ("-pause".equals(arg))
+            pauseMicros = Long.parseLong(args[++i]);
+         else if ("-runs".equals(arg))
+            runs = Integer.parseInt(args[++i]);
+         else
+         {
+            usage();
+            return;
+         }
+      }
+
+      UnboundedQueueBenchmark o = new UnboundedQueueBenchmark(numMessages);
+      final String bursty = String.format("bursty (%,d then %,dus)", burst, pauseMicros);
+      for (QueueType type : new QueueType[] { QueueType.OneToOneLinkedArrayQueue, QueueType.ConcurrentLinkedQueue })
+      {
+         o.runTests(type, chunkSize, "steady", 1, 0, runs);
+         o.runTests(type, chunkSize, bursty, burst, TimeUnit.MICROSECONDS.toNanos(pauseMicros), runs);
+      }
+   }
+
+   public static void usage()
+   {
+      System.out.println("usage: java " + UnboundedQueueBenchmark.class.getName() + " [options]");
+      System.out.println("        -messages n       messages per run (default " + MechanicalSympathy.numIterations + ")");
+      System.out.println("        -chunk n          chunk size of the linked array queue (default 1024)");
+      System.out.println("        -burst n          messages per burst under bursty load, at least 1 (default 100000)");
+      System.out.println("        -pause us         producer pause between bursts (default 1000)");
+      System.out.println("        -runs n           runs of each queue and load (default " + MechanicalSympathy.numRuns + ")");
+   }
+}
@@ -0,0 +1,221 @@
+package net.dempsy.mechanicalsympathy;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.SimpleQueue;
+
+/**
+ * What a producer does when the queue is full or a consumer does when it's empty. Each side
+ * of a queue gets its own instance. After making progress a side calls {@link #signal()} on
+ * the other side's strategy so a strategy that blocks can wake its thread up.
+ */
+public interface WaitStrategy
+{
+   /**
+    * Called each time an offer or poll fails. attempt is the number of consecutive failures
+    * before this one so it starts at 0.
+    */
+   public void idle(int attempt);
+
+   public void signal();
+
+   public static <E> void offer(final SimpleQueue<E> q, final E o, final WaitStrategy producer, final WaitStrategy consumer)
+   {
+      for (int attempt = 0; !q.offer(o); attempt++)
+         producer.idle(attempt);
+      consumer.signal();
+   }
+
+   public static <E> E poll(final SimpleQueue<E> q, final WaitStrategy consumer, final WaitStrategy producer)
+   {
+      E ret;
+      for (int attempt = 0; (ret = q.poll()) == null; attempt++)
+         consumer.idle(attempt);
+      producer.signal();
+      return ret;
+   }
+
+   //=====================================================================================
+
+   public static final class BusySpin implements WaitStrategy
+   {
+      public final void idle(int attempt) { Thread.onSpinWait(); }
+      public final void signal() {}
+   }
+
+   public static final class Yield implements WaitStrategy
+   {
+      public final void idle(int attempt) { Thread.yield(); }
+      public final void signal() {}
+   }
+
+   /**
+    * Spins, then yields, then parks for exponentially longer periods up to a maximum.
+    */
+   public static final class Backoff implements WaitStrategy
+   {
+      private final int maxSpins;
+      private final int maxYields;
+      private final long minParkNanos;
+      private final long maxParkNanos;
+
+      public Backoff(int maxSpins, int maxYields, long minParkNanos, long maxParkNanos)
+      {
+         this.maxSpins = maxSpins;
+         this.maxYields = maxSpins + maxYields;
+         this.minParkNanos = minParkNanos;
+         this.maxParkNanos = maxParkNanos;
+      }
+
+      public Backoff()
+      {
+         this(100, 10, TimeUnit.MICROSECONDS.toNanos(1), TimeUnit.MILLISECONDS.toNanos(1));
+      }
+
+      public final void idle(int attempt)
+      {
+         if (attempt < maxSpins)
+            Thread.onSpinWait();
+         else if (attempt < maxYields)
+            Thread.yield();
+         else
+         {
+            final int doublings = Math.min(attempt - maxYields, 30);
+            LockSupport.parkNanos(Math.min(minParkNanos << doublings, maxParkNanos));
+         }
+      }
+
+      public final void signal() {}
+   }
+
+   public static final class TimedPark implements WaitStrategy
+   {
+      private final long parkNanos;
+
+      public TimedPark(long parkNanos)
+      {
+         this.parkNanos = parkNanos;
+      }
+
+      public TimedPark()
+      {
+         this(TimeUnit.MICROSECONDS.toNanos(50));
+      }
+
+      public final void idle(int attempt) { LockSupport.parkNanos(parkNanos); }
+      public final void signal() {}
+   }
+
+   /**
+    * Spins briefly and then parks the thread until the other side signals. Any number of
+    * threads can wait on one instance and each signal unparks one of them. Nothing is
+    * synchronized so a virtual thread that parks here gives up its carrier rather than pinning
+    * it. As with {@link Blocking} a signal can land before the thread parks, so parking is timed
+    * to bound what a missed signal costs. A thread that times out removes itself from the
+    * waiters, which is linear in the number waiting but only happens once per park.
+    */
+   public static final class Park implements WaitStrategy
+   {
+      private final ConcurrentLinkedQueue<Thread> waiters = new ConcurrentLinkedQueue<Thread>();
+      private final int maxSpins;
+      private final long maxParkNanos;
+
+      public Park(int maxSpins, long maxParkNanos)
+      {
+         this.maxSpins = maxSpins;
+         this.maxParkNanos = maxParkNanos;
+      }
+
+      public Park()
+      {
+         this(100, TimeUnit.MILLISECONDS.toNanos(1));
+      }
+
+      public final void idle(int attempt)
+      {
+         if (attempt < maxSpins)
+            Thread.onSpinWait();
+         else
+         {
+            // a thread that wakes up without being signalled takes itself off so it's never
+            // queued more than once and a signal always goes to a thread that's still parked
+            final Thread current = Thread.currentThread();
+            waiters.offer(current);
+            LockSupport.parkNanos(this, maxParkNanos);
+            waiters.remove(current);
+         }
+      }
+
+      public final void signal()
+      {
+         if (!waiters.isEmpty())
+         {
+            final Thread waiter = waiters.poll();
+            if (waiter != null)
+               LockSupport.unpark(waiter);
+         }
+      }
+   }
+
+   /**
+    * Waits on a condition until the other side signals. The strategy can't see the queue so a
+    * signal that lands between the failed offer/poll and the wait is missed. The wait is timed
+    * to bound what that costs. signal() only takes the lock when someone is waiting.
+    */
+   public static final class Blocking implements WaitStrategy
+   {
+      private final ReentrantLock lock = new ReentrantLock();
+      private final Condition notEmptyOrFull = lock.newCondition();
+      private volatile int waiters = 0;
+      private final long maxWaitNanos;
+
+      public Blocking(long maxWaitNanos)
+      {
+         this.maxWaitNanos = maxWaitNanos;
+      }
+
+      public Blocking()
+      {
+         this(TimeUnit.MILLISECONDS.toNanos(1));
+      }
+
+      public final void idle(int attempt)
+      {
+         lock.lock();
+         try
+         {
+            waiters++;
+            notEmptyOrFull.awaitNanos(maxWaitNanos);
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+         }
+         finally
+         {
+            waiters--;
+            lock.unlock();
+         }
+      }
+
+      public final void signal()
+      {
+         if (waiters > 0)
+         {
+            lock.lock();
+            try
+            {
+               notEmptyOrFull.signalAll();
+            }
+            finally
+            {
+               lock.unlock();
+            }
+         }
+      }
+   }
+}
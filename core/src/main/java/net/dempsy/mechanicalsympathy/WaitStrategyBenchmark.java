@@ -0,0 +1,103 @@
+package net.dempsy.mechanicalsympathy;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the {@link LatencyBenchmark} for every combination of wait strategy, queue and rate
+ * and reports throughput, latency and the CPU time each side burned. The CPU is given as a
+ * percentage of one core over the measured interval. When a rate is given the producer spins
+ * between scheduled sends so its CPU mostly reflects the pacing; the consumer's is the one
+ * to look at.
+ *
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar net.dempsy.mechanicalsympathy.WaitStrategyBenchmark \
+ *     -rate 0,100000 -wait BusySpin,Backoff,Blocking OneToOneQueue2Padded
+ * </pre>
+ */
+public class WaitStrategyBenchmark
+{
+   public static void main(String[] args) throws Throwable
+   {
+      int capacity = MechanicalSympathy.queueSize;
+      int numMessages = 1024 * 1024 * 4;
+      int numWarmup = 1024 * 1024;
+      List<Long> rates = new ArrayList<Long>();
+      List<WaitStrategyType> waits = new ArrayList<WaitStrategyType>();
+      List<QueueType> types = new ArrayList<QueueType>();
+
+      for (int i = 0; i < args.length; i++)
+      {
+         final String arg = args[i];
+         if ("-rate".equals(arg))
+         {
+            for (String rate : args[++i].split(","))
+               rates.add(Long.parseLong(rate));
+         }
+         else if ("-wait".equals(arg))
+         {
+            for (String wait : args[++i].split(","))
+               waits.add(WaitStrategyType.valueOf(wait));
+         }
+         else if ("-capacity".equals(arg))
+            capacity = Integer.parseInt(args[++i]);
+         else if ("-messages".equals(arg))
+            numMessages = Integer.parseInt(args[++i]);
+         else if ("-warmup".equals(arg))
+            numWarmup = Integer.parseInt(args[++i]);
+         else if (arg.startsWith("-"))
+         {
+            usage();
+            return;
+         }
+         else
+            types.add(QueueType.valueOf(arg));
+      }
+
+      if (rates.isEmpty())
+      {
+         rates.add(0L);
+         rates.add(100000L);
+      }
+      if (waits.isEmpty())
+         for (WaitStrategyType wait : WaitStrategyType.values())
+            waits.add(wait);
+      if (types.isEmpty())
+      {
+         types.add(QueueType.OneToOneQueue2Padded);
+         types.add(QueueType.ArrayBlockingQueue);
+      }
+
+      LatencyBenchmark o = new LatencyBenchmark(capacity, numMessages, numWarmup, true);
+      for (long rate : rates)
+      {
+         for (QueueType type : types)
+         {
+            for (WaitStrategyType wait : waits)
+            {
+               final LatencyBenchmark.Result result = o.measure(type, rate, wait.create(), wait.create());
+               final String prefix = String.format("%s %s @ %s %,d ops/sec producer cpu=%.0f%% consumer cpu=%.0f%%",
+                     type, wait, rate > 0 ? String.format("%,d msgs/sec", rate) : "max rate",
+                     result.opsPerSecond(),
+                     100.0 * result.producerCpuNanos / result.elapsedNanos,
+                     100.0 * result.consumerCpuNanos / result.elapsedNanos);
+               System.out.println(LatencyBenchmark.format(prefix, result.histogram) + " " + result.allocation.format(numMessages));
+            }
+         }
+      }
+   }
+
+   public static void usage()
+   {
+      System.out.println("usage: java " + WaitStrategyBenchmark.class.getName() + " [options] [queue type ...]");
+      System.out.println("        -rate n[,n...]    target producer rate(s) in msgs/sec. 0 is unthrottled. (default 0,100000)");
+      System.out.println("        -wait s[,s...]    wait strategies (default all)");
+      System.out.println("        -capacity n       queue capacity (default " + MechanicalSympathy.queueSize + ")");
+      System.out.println("        -messages n       number of measured messages per run");
+      System.out.println("        -warmup n         number of messages sent before measuring");
+      System.out.print("      wait strategies:");
+      for (WaitStrategyType wait : WaitStrategyType.values())
+         System.out.print(" " + wait);
+      System.out.println();
+   }
+}
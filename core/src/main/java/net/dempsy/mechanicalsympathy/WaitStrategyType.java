@@ -0,0 +1,34 @@
+package net.dempsy.mechanicalsympathy;
+
+/**
+ * Every {@link WaitStrategy} with its default settings, so harnesses can select them by name.
+ */
+public enum WaitStrategyType
+{
+   BusySpin
+   {
+      public WaitStrategy create() { return new WaitStrategy.BusySpin(); }
+   },
+   Yield
+   {
+      public WaitStrategy create() { return new WaitStrategy.Yield(); }
+   },
+   Backoff
+   {
+      public WaitStrategy create() { return new WaitStrategy.Backoff(); }
+   },
+   TimedPark
+   {
+      public WaitStrategy create() { return new WaitStrategy.TimedPark(); }
+   },
+   Park
+   {
+      public WaitStrategy create() { return new WaitStrategy.Park(); }
+   },
+   Blocking
+   {
+      public WaitStrategy create() { return new WaitStrategy.Blocking(); }
+   };
+
+   public abstract WaitStrategy create();
+}
@@ -0,0 +1,263 @@
+package net.dempsy.mechanicalsympathy;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+
+import net.dempsy.mechanicalsympathy.MechanicalSympathy.SimpleQueue;
+
+/**
+ * Thousands of producers feeding a few queues with one consumer each, every one of them a
+ * virtual thread (or a platform thread with -platform for comparison). Producers are spread
+ * round robin over the queues and each message is the {@link System#nanoTime()} at which it was
+ * offered, so the consumers record latency the same way {@link LatencyBenchmark} does.
+ *
+ * A virtual thread that spins or yields holds on to its carrier, so the default wait strategy
+ * here is {@link WaitStrategy.Park}: the producers of a queue park on one instance when it's
+ * full and its consumer parks on another when it's empty, and each side unparks the other as it
+ * makes progress. Carrier utilization is the CPU time of the virtual thread scheduler's worker
+ * threads over the run as a percentage of elapsed time times the number of carriers seen.
+ *
+ * Only queues that take more than one producer can be used. Needs JDK 21, so it's built from
+ * src/main/java21 only when Maven runs on JDK 21 or later.
+ *
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar net.dempsy.mechanicalsympathy.VirtualThreadBenchmark \
+ *     -producers 5000 -count 4 ManyToOneQueuePadded ArrayBlockingQueue
+ * </pre>
+ */
+public class VirtualThreadBenchmark
+{
+   private final static String carrierPrefix = "ForkJoinPool-";
+   private final static String carrierInfix = "-worker-";
+
+   private final int capacity;
+   private final int numQueues;
+   private final int numProducers;
+   private final int numMessages;
+   private final WaitStrategyType wait;
+   private final boolean virtual;
+
+   public VirtualThreadBenchmark(int capacity, int numQueues, int numProducers, int numMessages, WaitStrategyType wait, boolean virtual)
+   {
+      this.capacity = capacity;
+      this.numQueues = numQueues;
+      this.numProducers = numProducers;
+      this.numMessages = numMessages;
+      this.wait = wait;
+      this.virtual = virtual;
+   }
+
+   public static final class Result
+   {
+      public final Histogram histogram;
+      public final long elapsedNanos;
+      public final int carriers;
+      public final long carrierCpuNanos;
+
+      public Result(Histogram histogram, long elapsedNanos, int carriers, long carrierCpuNanos)
+      {
+         this.histogram = histogram;
+         this.elapsedNanos = elapsedNanos;
+         this.carriers = carriers;
+         this.carrierCpuNanos = carrierCpuNanos;
+      }
+
+      public long opsPerSecond()
+      {
+         return (long)((double)histogram.getTotalCount() * TimeUnit.SECONDS.toNanos(1) / elapsedNanos);
+      }
+
+      public double carrierUtilization()
+      {
+         return carriers == 0 ? 0.0 : 100.0 * carrierCpuNanos / ((double)elapsedNanos * carriers);
+      }
+   }
+
+   private static Map<Long, Long> carrierCpuTimes()
+   {
+      final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+      final Map<Long, Long> ret = new HashMap<Long, Long>();
+      for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds()))
+      {
+         if (info != null && info.getThreadName().startsWith(carrierPrefix) && info.getThreadName().contains(carrierInfix))
+         {
+            final long cpu = threads.getThreadCpuTime(info.getThreadId());
+            if (cpu >= 0)
+               ret.put(info.getThreadId(), cpu);
+         }
+      }
+      return ret;
+   }
+
+   private Thread start(String name, Runnable task)
+   {
+      return virtual ? Thread.ofVirtual().name(name).start(task) : Thread.ofPlatform().name(name).start(task);
+   }
+
+   public Result measure(final QueueType type) throws InterruptedException
+   {
+      final List<SimpleQueue<Long>> queues = new ArrayList<SimpleQueue<Long>>();
+      final List<WaitStrategy> producerWaits = new ArrayList<WaitStrategy>();
+      final List<WaitStrategy> consumerWaits = new ArrayList<WaitStrategy>();
+      for (int i = 0; i < numQueues; i++)
+      {
+         queues.add(type.<Long>create(capacity));
+         producerWaits.add(wait.create());
+         consumerWaits.add(wait.create());
+      }
+
+      // each producer sends an equal share and each consumer takes everything for its queue
+      final int perProducer = numMessages / numProducers;
+      final int[] perQueue = new int[numQueues];
+      for (int p = 0; p < numProducers; p++)
+         perQueue[p % numQueues] += perProducer;
+
+      final Histogram[] histograms = new Histogram[numQueues];
+      final List<Thread> consumers = new ArrayList<Thread>();
+      for (int c = 0; c < numQueues; c++)
+      {
+         final SimpleQueue<Long> q = queues.get(c);
+         final WaitStrategy producerWait = producerWaits.get(c);
+         final WaitStrategy consumerWait = consumerWaits.get(c);
+         final int count = perQueue[c];
+         final Histogram histogram = histograms[c] = new Histogram(LatencyBenchmark.highestTrackableLatency, 3);
+         consumers.add(start("consumer-" + c, new Runnable()
+         {
+            @Override
+            public void run()
+            {
+               for (int i = 0; i < count; i++)
+               {
+                  final Long sent = WaitStrategy.poll(q, consumerWait, producerWait);
+                  histogram.recordValue(Math.min(System.nanoTime() - sent, LatencyBenchmark.highestTrackableLatency));
+               }
+            }
+         }));
+      }
+
+      final Map<Long, Long> startCpu = carrierCpuTimes();
+      final long startTime = System.nanoTime();
+
+      final List<Thread> producers = new ArrayList<Thread>();
+      for (int p = 0; p < numProducers; p++)
+      {
+         final SimpleQueue<Long> q = queues.get(p % numQueues);
+         final WaitStrategy producerWait = producerWaits.get(p % numQueues);
+         final WaitStrategy consumerWait = consumerWaits.get(p % numQueues);
+         producers.add(start("producer-" + p, new Runnable()
+         {
+            @Override
+            public void run()
+            {
+               for (int i = 0; i < perProducer; i++)
+                  WaitStrategy.offer(q, (Long)System.nanoTime(), producerWait, consumerWait);
+            }
+         }));
+      }
+
+      for (Thread consumer : consumers)
+         consumer.join();
+      final long endTime = System.nanoTime();
+      final Map<Long, Long> endCpu = carrierCpuTimes();
+
+      for (Thread producer : producers)
+         producer.join();
+
+      long carrierCpu = 0;
+      for (Map.Entry<Long, Long> entry : endCpu.entrySet())
+      {
+         final Long start = startCpu.get(entry.getKey());
+         carrierCpu += entry.getValue() - (start == null ? 0 : start);
+      }
+
+      final Histogram histogram = new Histogram(LatencyBenchmark.highestTrackableLatency, 3);
+      for (Histogram h : histograms)
+         histogram.add(h);
+      return new Result(histogram, endTime - startTime, endCpu.size(), carrierCpu);
+   }
+
+   public static void main(String[] args) throws Throwable
+   {
+      int capacity = 1024;
+      int numQueues = 4;
+      int numProducers = 2000;
+      int numMessages = 2 * 1024 * 1024;
+      WaitStrategyType wait = WaitStrategyType.Park;
+      boolean virtual = true;
+      int runs = MechanicalSympathy.numRuns;
+      List<QueueType> types = new ArrayList<QueueType>();
+
+      for (int i = 0; i < args.length; i++)
+      {
+         final String arg = args[i];
+         if ("-capacity".equals(arg) && i < args.length - 1)
+            capacity = Integer.parseInt(args[++i]);
+         else if ("-count".equals(arg) && i < args.length - 1)
+            numQueues = Integer.parseInt(args[++i]);
+         else if ("-producers".equals(arg) && i < args.length - 1)
+            numProducers = Integer.parseInt(args[++i]);
+         else if ("-messages".equals(arg) && i < args.length - 1)
+            numMessages = Integer.parseInt(args[++i]);
+         else if ("-wait".equals(arg) && i < args.length - 1)
+            wait = WaitStrategyType.valueOf(args[++i]);
+         else if ("-runs".equals(arg) && i < args.length - 1)
+            runs = Integer.parseInt(args[++i]);
+         else if ("-platform".equals(arg))
+            virtual = false;
+         else if (arg.startsWith("-"))
+         {
+            usage();
+            return;
+         }
+         else
+            types.add(QueueType.valueOf(arg));
+      }
+
+      if (types.isEmpty())
+         for (QueueType type : QueueType.values())
+            if (type.multiProducer)
+               types.add(type);
+
+      VirtualThreadBenchmark o = new VirtualThreadBenchmark(capacity, numQueues, numProducers, numMessages, wait, virtual);
+      for (QueueType type : types)
+      {
+         final String prefix = String.format("%s x %d %,d %s producers %s", type, numQueues, numProducers, virtual ? "virtual" : "platform", wait);
+         if (!type.multiProducer)
+         {
+            System.out.println(prefix + " skipped: not supported by the queue");
+            continue;
+         }
+
+         final long[] results = new long[runs];
+         for (int run = 0; run < runs; run++)
+         {
+            final Result result = o.measure(type);
+            results[run] = result.opsPerSecond();
+            System.out.println(LatencyBenchmark.format(String.format("%s %,d ops/sec carriers %d at %.0f%%", prefix, results[run], result.carriers,
+                  result.carrierUtilization()), result.histogram));
+         }
+         System.out.format("%s %s%n", prefix, Statistics.of(results));
+      }
+   }
+
+   public static void usage()
+   {
+      System.out.println("usage: java " + VirtualThreadBenchmark.class.getName() + " [options] [queue types...]");
+      System.out.println("        -capacity n       capacity of each queue (default 1024)");
+      System.out.println("        -count n          queues of each type, each with one consumer (default 4)");
+      System.out.println("        -producers n      producer threads spread over the queues (default 2000)");
+      System.out.println("        -messages n       messages per run across all producers (default " + (2 * 1024 * 1024) + ")");
+      System.out.println("        -wait strategy    wait strategy for both sides (default Park)");
+      System.out.println("        -runs n           runs of each queue type (default " + MechanicalSympathy.numRuns + ")");
+      System.out.println("        -platform         use platform threads instead of virtual threads");
+      System.out.println("      queue types default to every type that takes more than one producer");
+   }
+}